@@ -0,0 +1,24 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, so every score comes with its allocation rate (gc.alloc.rate.norm is
+ * bytes allocated per operation). Takes the command line options of JMH, e.g. a benchmark name regex,
+ * '-p latencyMillis=5' or '-rf json -rff results.json'.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,79 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.openjdk.jmh.annotations.*;
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning projects into a bulk request of 1000 documents: writing the NDJSON lines of the json file and
+ * building the bulk request from them, the way insertData does (every source line parsed to a JSONObject) and the
+ * way the streaming insert does (source lines passed as they are). The scores are documents per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkSerializationBenchmark {
+
+    private static final int DOCS = 1000;
+
+    private Object[] records;
+    private String[] sources;
+    private MethodHandle toBulkLines;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(42);
+        MethodHandle newRecord = Project.constructor("ProjectRecord", String.class, String.class, String.class, String.class);
+        MethodHandle toSource = Project.method("ProjectRecord", "toSource");
+        toBulkLines = Project.method("ProjectRecord", "toBulkLines");
+        records = new Object[DOCS];
+        sources = new String[DOCS];
+        for (int i = 0; i < DOCS; i++) {
+            records[i] = newRecord.invoke(String.valueOf(190000 + i), "ACR" + i,
+                    CannedData.text(random, 12) + "    " + CannedData.text(random, 300), "ID" + i);
+            sources[i] = (String) toSource.invoke(records[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS)
+    public long bulkLines() throws Throwable {
+        long length = 0;
+        for (Object record : records) {
+            length += ((String) toBulkLines.invoke(record)).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS)
+    public BulkRequest parsedSources() throws Exception {
+        JSONParser jsonParser = new JSONParser();
+        BulkRequest request = new BulkRequest();
+        for (int i = 0; i < DOCS; i++) {
+            request.add(new IndexRequest("bench", "_doc", String.valueOf(i)).source((JSONObject) jsonParser.parse(sources[i])));
+        }
+        return request;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS)
+    public BulkRequest rawSources() {
+        BulkRequest request = new BulkRequest();
+        for (int i = 0; i < DOCS; i++) {
+            request.add(new IndexRequest("bench", "_doc", String.valueOf(i)).source(sources[i], XContentType.JSON));
+        }
+        return request;
+    }
+}
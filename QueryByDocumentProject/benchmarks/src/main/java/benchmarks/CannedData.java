@@ -0,0 +1,120 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Synthetic documents and canned elastic search responses with the shape of the real ones. Generated from a fixed
+ * seed, so every run of a benchmark sees the same data.
+ */
+final class CannedData {
+
+    private static final String[] WORDS = {"research", "energy", "innovation", "network", "climate", "data",
+        "materials", "health", "systems", "european", "development", "project", "training", "novel", "methods",
+        "cells", "quantum", "water", "urban", "mobility", "digital", "models", "analysis", "policy", "the", "of",
+        "and", "to", "in", "for", "with", "on", "by", "will", "be", "this", "new", "high", "low", "carbon"};
+
+    private CannedData() {
+    }
+
+    /**
+     * @param random The source of randomness
+     * @param words The number of words
+     * @return A text of random words
+     */
+    static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param random The source of randomness
+     * @param rcn The rcn of the project
+     * @return An xml file of the collection with one project
+     */
+    static byte[] projectXml(Random random, int rcn) {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<project xmlns=\"http://cordis.europa.eu\">\n" +
+                "    <language>en</language>\n" +
+                "    <rcn>" + rcn + "</rcn>\n" +
+                "    <id>" + (700000 + rcn) + "</id>\n" +
+                "    <acronym>ACR" + rcn + "</acronym>\n" +
+                "    <status>SIGNED</status>\n" +
+                "    <programme>H2020-EU.1.1.</programme>\n" +
+                "    <title>" + text(random, 12) + "</title>\n" +
+                "    <startDate>2018-01-01</startDate>\n" +
+                "    <endDate>2022-12-31</endDate>\n" +
+                "    <totalCost>1500000</totalCost>\n" +
+                "    <objective>" + text(random, 300) + "</objective>\n" +
+                "    <relations>\n" +
+                "        <programmes>\n" +
+                "            <programme>\n" +
+                "                <rcn>664099</rcn>\n" +
+                "                <title>" + text(random, 6) + "</title>\n" +
+                "            </programme>\n" +
+                "        </programmes>\n" +
+                "    </relations>\n" +
+                "    <identifier>ID" + rcn + "</identifier>\n" +
+                "</project>\n";
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param hits The number of hits
+     * @param source True to include a '_source' with the text of each hit
+     * @return A search response
+     */
+    static String searchResponse(int hits, boolean source) {
+        Random random = new Random(hits);
+        StringBuilder response = new StringBuilder();
+        response.append("{\"took\":3,\"timed_out\":false,\"_shards\":{\"total\":5,\"successful\":5,\"skipped\":0,\"failed\":0},")
+                .append("\"hits\":{\"total\":").append(hits * 50).append(",\"max_score\":").append(40.0f).append(",\"hits\":[");
+        for (int i = 0; i < hits; i++) {
+            if (i > 0) response.append(',');
+            response.append("{\"_index\":\"bench\",\"_type\":\"_doc\",\"_id\":\"").append(190000 + random.nextInt(30000))
+                    .append("\",\"_score\":").append(40.0f - i * 0.5f);
+            if (source) {
+                response.append(",\"_source\":{\"acronym\":\"ACR").append(i).append("\",\"text\":\"")
+                        .append(text(random, 300)).append("\",\"identifier\":\"ID").append(i).append("\"}");
+            }
+            response.append('}');
+        }
+        return response.append("]}}").toString();
+    }
+
+    /**
+     * @param searches The number of searches
+     * @param hits The number of hits of each search
+     * @return A multi search response
+     */
+    static String multiSearchResponse(int searches, int hits) {
+        StringBuilder response = new StringBuilder("{\"responses\":[");
+        String search = searchResponse(hits, false);
+        for (int i = 0; i < searches; i++) {
+            if (i > 0) response.append(',');
+            response.append(search, 0, search.length() - 1).append(",\"status\":200}");
+        }
+        return response.append("]}").toString();
+    }
+
+    /**
+     * @param items The number of indexed documents
+     * @return A bulk response where every document was created
+     */
+    static String bulkResponse(int items) {
+        StringBuilder response = new StringBuilder("{\"took\":30,\"errors\":false,\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) response.append(',');
+            response.append("{\"index\":{\"_index\":\"bench\",\"_type\":\"_doc\",\"_id\":\"").append(i)
+                    .append("\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},")
+                    .append("\"_seq_no\":").append(i).append(",\"_primary_term\":1,\"status\":201}}");
+        }
+        return response.append("]}").toString();
+    }
+}
@@ -0,0 +1,116 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.openjdk.jmh.annotations.*;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end cost of the operations of the Client against a {@link StubElasticsearch} that answers after
+ * 'latencyMillis': full text queries with lean and with high level responses, MLT queries, a batch of 50 queries
+ * in multi search requests and a streaming insert of 1000 documents with the BulkIngester. With a latency of 0
+ * the scores are the client side overhead. The scores are milliseconds per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+    private static final int DOCS = 1000;
+
+    @Param({"0", "2"})
+    public long latencyMillis;
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient restClient;
+    private Object leanClient, client, replies;
+    private String query;
+    private String[] sources;
+    private List<?> batch;
+    private MethodHandle fullTextQuery, mltQuery, batchQuery, close;
+    private MethodHandle newIngester, add, closeIngester;
+
+    @Setup
+    public void setup() throws Throwable {
+        stub = new StubElasticsearch(latencyMillis, 21);
+        HttpHost[] hosts = {new HttpHost("127.0.0.1", stub.port(), "http")};
+        MethodHandle newClient = Project.constructor("Client", String.class, HttpHost[].class);
+        MethodHandle setLeanResponses = Project.method("Client", "setLeanResponses", boolean.class);
+        leanClient = newClient.invoke("bench", hosts);
+        setLeanResponses.invoke(leanClient, true);
+        client = newClient.invoke("bench", hosts);
+        restClient = new RestHighLevelClient(RestClient.builder(hosts));
+
+        Random random = new Random(42);
+        query = CannedData.text(random, 300);
+        List<String> texts = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) texts.add(CannedData.text(random, 300));
+        batch = (List<?>) Project.method("QueryRequest", "of", Project.type("QueryRequest$Type"), List.class)
+                .invoke(Project.queryType("FULL_TEXT"), texts);
+        sources = new String[DOCS];
+        for (int i = 0; i < DOCS; i++) {
+            sources[i] = "{\"acronym\":\"ACR" + i + "\",\"text\":\"" + CannedData.text(random, 300) + "\",\"identifier\":\"ID" + i + "\"}";
+        }
+
+        Class<?> results = Project.type("QueryResults");
+        replies = Project.constructor("QueryResults", int.class).invoke(20);
+        fullTextQuery = Project.method("Client", "fullTextQuery", String.class, results);
+        mltQuery = Project.method("Client", "MLTQuery", String.class, results);
+        batchQuery = Project.method("Client", "batchQuery", List.class, int.class);
+        close = Project.method("Client", "close");
+        newIngester = Project.constructor("BulkIngester", RestHighLevelClient.class, String.class, int.class, long.class, int.class);
+        add = Project.method("BulkIngester", "add", String.class, String.class);
+        closeIngester = Project.method("BulkIngester", "close");
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        close.invoke(leanClient);
+        close.invoke(client);
+        restClient.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public Object fullTextQueryLean() throws Throwable {
+        fullTextQuery.invoke(leanClient, query, replies);
+        return replies;
+    }
+
+    @Benchmark
+    public Object fullTextQueryHighLevel() throws Throwable {
+        fullTextQuery.invoke(client, query, replies);
+        return replies;
+    }
+
+    @Benchmark
+    public Object mltQuery() throws Throwable {
+        mltQuery.invoke(leanClient, query, replies);
+        return replies;
+    }
+
+    @Benchmark
+    public Object batchQuery() throws Throwable {
+        return batchQuery.invoke(leanClient, batch, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public void bulkIngest() throws Throwable {
+        Object ingester = newIngester.invoke(restClient, "bench", 500, 5L * 1024 * 1024, 2);
+        for (int i = 0; i < DOCS; i++) {
+            add.invoke(ingester, String.valueOf(i), sources[i]);
+        }
+        closeIngester.invoke(ingester);
+    }
+}
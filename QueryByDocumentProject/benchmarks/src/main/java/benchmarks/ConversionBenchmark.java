@@ -0,0 +1,145 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the conversion of the xml collection (CreateFilesMain): parsing a project with DOM, like the
+ * sequential mode, and with StAX, like the parallel mode, writing the xml file with the "text" element, and
+ * converting a whole collection with the CollectionConverter. The scores are projects per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+
+    private static final int FILES = 200;
+
+    private byte[][] xmls;
+    private File xmlDirectory;
+    private Object parser, xmlWriter, record;
+    private MethodHandle parse, write;
+
+    /**
+     * A collection of xml files on disk and a CollectionConverter with 'threads' threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Collection {
+
+        @Param({"1", "4"})
+        public int threads;
+
+        private File collection, xmlDirectory, jsonFile;
+        private File[] files;
+        private Object converter;
+        private MethodHandle convert;
+
+        @Setup
+        public void setup() throws Throwable {
+            Random random = new Random(42);
+            collection = Files.createTempDirectory("collection").toFile();
+            xmlDirectory = Files.createTempDirectory("new_xml_collection").toFile();
+            jsonFile = File.createTempFile("texts", ".json");
+            files = new File[FILES];
+            for (int i = 0; i < FILES; i++) {
+                files[i] = new File(collection, (190000 + i) + ".xml");
+                Files.write(files[i].toPath(), CannedData.projectXml(random, 190000 + i));
+            }
+            converter = Project.constructor("CollectionConverter", int.class).invoke(threads);
+            convert = Project.method("CollectionConverter", "convert", File[].class, File.class, File.class);
+        }
+
+        @TearDown
+        public void tearDown() {
+            delete(collection);
+            delete(xmlDirectory);
+            jsonFile.delete();
+        }
+    }
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(42);
+        xmls = new byte[FILES][];
+        for (int i = 0; i < FILES; i++) {
+            xmls[i] = CannedData.projectXml(random, 190000 + i);
+        }
+        xmlDirectory = Files.createTempDirectory("new_xml_collection").toFile();
+
+        parser = Project.constructor("ProjectParser").invoke();
+        parse = Project.method("ProjectParser", "parse", InputStream.class);
+        xmlWriter = Project.constructor("ProjectXMLWriter").invoke();
+        write = Project.method("ProjectXMLWriter", "write", Project.type("ProjectRecord"), File.class);
+        record = ((List<?>) parse.invoke(parser, new ByteArrayInputStream(xmls[0]))).get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(xmlDirectory);
+    }
+
+    /* Parses the projects like the sequential mode of CreateFilesMain. */
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void domParse(Blackhole blackhole) throws Exception {
+        for (byte[] xml : xmls) {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+            NodeList list = doc.getElementsByTagName("project");
+            for (int i = 0; i < list.getLength(); i++) {
+                Node n = list.item(i);
+                if (n.getNodeType() == Node.ELEMENT_NODE) {
+                    Element element = (Element) n;
+                    blackhole.consume(element.getElementsByTagName("rcn").item(0).getTextContent());
+                    blackhole.consume(element.getElementsByTagName("acronym").item(0).getTextContent());
+                    blackhole.consume(element.getElementsByTagName("title").item(0).getTextContent()
+                            + "    " + element.getElementsByTagName("objective").item(0).getTextContent());
+                    blackhole.consume(element.getElementsByTagName("identifier").item(0).getTextContent());
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void staxParse(Blackhole blackhole) throws Throwable {
+        for (byte[] xml : xmls) {
+            blackhole.consume(parse.invoke(parser, new ByteArrayInputStream(xml)));
+        }
+    }
+
+    @Benchmark
+    public void writeXml() throws Throwable {
+        write.invoke(xmlWriter, record, new File(xmlDirectory, "project.xml"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void convertCollection(Collection collection) throws Throwable {
+        collection.convert.invoke(collection.converter, collection.files, collection.xmlDirectory, collection.jsonFile);
+    }
+
+    /* Deletes a directory with its files. */
+    private static void delete(File directory) {
+        File[] children = directory.listFiles();
+        if (children != null) for (File child : children) child.delete();
+        directory.delete();
+    }
+}
@@ -0,0 +1,60 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the classes of the project, which are in the default package and cannot be imported. The handles are
+ * looked up once in the setup of a benchmark, so a benchmark pays only for the invocation.
+ */
+final class Project {
+
+    private Project() {
+    }
+
+    /**
+     * @param name The name of a class of the project
+     * @return The class
+     */
+    static Class<?> type(String name) throws ClassNotFoundException {
+        return Class.forName(name);
+    }
+
+    /**
+     * Returns a handle to a method of the project, private or not.
+     * @param owner The name of the class of the method
+     * @param name The name of the method
+     * @param parameters The parameter types of the method
+     * @return The method handle. An instance method takes the instance as its first argument
+     */
+    static MethodHandle method(String owner, String name, Class<?>... parameters) throws ReflectiveOperationException {
+        Method method = type(owner).getDeclaredMethod(name, parameters);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+
+    /**
+     * Returns a handle to a constructor of the project.
+     * @param owner The name of the class
+     * @param parameters The parameter types of the constructor
+     * @return The method handle
+     */
+    static MethodHandle constructor(String owner, Class<?>... parameters) throws ReflectiveOperationException {
+        Constructor<?> constructor = type(owner).getDeclaredConstructor(parameters);
+        constructor.setAccessible(true);
+        return MethodHandles.lookup().unreflectConstructor(constructor);
+    }
+
+    /**
+     * @param type The type of query, "FULL_TEXT" or "MLT"
+     * @return The constant of the enum QueryRequest.Type
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object queryType(String type) throws ClassNotFoundException {
+        return Enum.valueOf((Class<Enum>) type("QueryRequest$Type"), type);
+    }
+}
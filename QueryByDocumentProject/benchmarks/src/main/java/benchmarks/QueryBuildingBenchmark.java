@@ -0,0 +1,79 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.*;
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the body of a query request with the Client: creating the search source of a full text or MLT
+ * query for a query text of 'words' words and serializing it to json, alone and for the 50 queries of a multi
+ * search request. No request is sent. The scores are microseconds per query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBuildingBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+
+    @Param({"20", "300"})
+    public int words;
+
+    private Object client;
+    private String[] queries;
+    private Object parameters;
+    private MethodHandle fullTextSource, mltSource, toJson, close;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(42);
+        queries = new String[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            queries[i] = CannedData.text(random, words);
+        }
+        //the client connects lazily, so no node is needed
+        client = Project.constructor("Client", String.class, HttpHost[].class)
+                .invoke("bench", new HttpHost[] {new HttpHost("127.0.0.1", 9200, "http")});
+        Project.method("Client", "setLeanResponses", boolean.class).invoke(client, true);
+        Class<?> parametersType = Project.type("QueryParameters");
+        parameters = parametersType.getField("DEFAULT").get(null);
+        fullTextSource = Project.method("Client", "fullTextSource", String.class, parametersType);
+        mltSource = Project.method("Client", "mltSource", String.class, parametersType);
+        toJson = Project.method("Client", "toJson", SearchSourceBuilder.class);
+        close = Project.method("Client", "close");
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        close.invoke(client);
+    }
+
+    @Benchmark
+    public String fullTextQuery() throws Throwable {
+        return (String) toJson.invoke((SearchSourceBuilder) fullTextSource.invoke(client, queries[0], parameters));
+    }
+
+    @Benchmark
+    public String mltQuery() throws Throwable {
+        return (String) toJson.invoke((SearchSourceBuilder) mltSource.invoke(client, queries[0], parameters));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String multiSearchBody() throws Throwable {
+        StringBuilder body = new StringBuilder();
+        for (String query : queries) {
+            body.append("{\"index\":\"bench\"}\n")
+                    .append((String) toJson.invoke((SearchSourceBuilder) fullTextSource.invoke(client, query, parameters))).append('\n');
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,83 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.openjdk.jmh.annotations.*;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing the search responses of 21 hits: with the high level client (SearchResponse, with and without
+ * '_source'), with the streaming HitsParser of the lean responses, and a multi search response of 50 searches with
+ * the HitsParser. The scores are microseconds per search response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseParsingBenchmark {
+
+    private static final int HITS = 21;
+    private static final int SEARCHES = 50;
+
+    private byte[] lean, full, multi;
+    private Object replies;
+    private List<Object> multiReplies;
+    private boolean[] failed;
+    private int[] skip;
+    private MethodHandle parseSearch, parseMultiSearch;
+
+    @Setup
+    public void setup() throws Throwable {
+        lean = CannedData.searchResponse(HITS, false).getBytes(StandardCharsets.UTF_8);
+        full = CannedData.searchResponse(HITS, true).getBytes(StandardCharsets.UTF_8);
+        multi = CannedData.multiSearchResponse(SEARCHES, HITS).getBytes(StandardCharsets.UTF_8);
+
+        MethodHandle newResults = Project.constructor("QueryResults", int.class);
+        replies = newResults.invoke(HITS);
+        multiReplies = new ArrayList<>(SEARCHES);
+        for (int i = 0; i < SEARCHES; i++) multiReplies.add(newResults.invoke(HITS));
+        failed = new boolean[SEARCHES];
+        skip = new int[SEARCHES];
+        Arrays.fill(skip, 1);
+        parseSearch = Project.method("HitsParser", "parseSearch", InputStream.class, Project.type("QueryResults"), int.class);
+        parseMultiSearch = Project.method("HitsParser", "parseMultiSearch", InputStream.class, List.class, boolean[].class, int[].class);
+    }
+
+    @Benchmark
+    public SearchResponse highLevelFull() throws Exception {
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, full)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    @Benchmark
+    public SearchResponse highLevelLean() throws Exception {
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, lean)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    @Benchmark
+    public long hitsParser() throws Throwable {
+        return (long) parseSearch.invoke(new ByteArrayInputStream(lean), replies, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEARCHES)
+    public int hitsParserMultiSearch() throws Throwable {
+        return (int) parseMultiSearch.invoke(new ByteArrayInputStream(multi), multiReplies, failed, skip);
+    }
+}
@@ -0,0 +1,99 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import org.apache.http.HttpHost;
+import org.openjdk.jmh.annotations.*;
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of full text queries against three {@link StubElasticsearch} nodes, one of which is slow
+ * ('slowMillis' instead of 'latencyMillis'), as a node in a long gc pause. 'routing' is NONE for the round robin of
+ * the rest client or a policy of the NodeRouter, and 'hedgePercentile' enables hedged searches. With 'sniff' the
+ * client is given only the first node and discovers the others from its '_nodes/http' response.
+ * The scores are the percentiles of the milliseconds per query.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RoutingBenchmark {
+
+    @Param({"NONE", "ROUND_ROBIN", "LEAST_OUTSTANDING", "LATENCY_WEIGHTED"})
+    public String routing;
+
+    @Param({"0", "95"})
+    public double hedgePercentile;
+
+    @Param({"false"})
+    public boolean sniff;
+
+    @Param({"2"})
+    public long latencyMillis;
+
+    @Param({"50"})
+    public long slowMillis;
+
+    private StubElasticsearch[] stubs;
+    private Object client;
+    private String query;
+    private MethodHandle fullTextQuery, close;
+
+    /**
+     * The replies of the queries of a thread.
+     */
+    @State(Scope.Thread)
+    public static class Replies {
+        Object replies;
+
+        @Setup
+        public void setup() throws Throwable {
+            replies = Project.constructor("QueryResults", int.class).invoke(20);
+        }
+    }
+
+    @Setup
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setup() throws Throwable {
+        stubs = new StubElasticsearch[3];
+        String[] addresses = new String[stubs.length];
+        for (int i = 0; i < stubs.length; i++) {
+            stubs[i] = new StubElasticsearch(i == stubs.length - 1 ? slowMillis : latencyMillis, 21);
+            addresses[i] = "127.0.0.1:" + stubs[i].port();
+        }
+        stubs[0].setNodes(addresses);
+        HttpHost[] hosts = new HttpHost[sniff ? 1 : stubs.length];
+        for (int i = 0; i < hosts.length; i++) hosts[i] = new HttpHost("127.0.0.1", stubs[i].port(), "http");
+
+        client = Project.constructor("Client", String.class, HttpHost[].class).invoke("bench", hosts);
+        Project.method("Client", "setLeanResponses", boolean.class).invoke(client, true);
+        if (!routing.equals("NONE")) {
+            Class<?> policy = Project.type("NodeRouter$Policy");
+            Object router = Project.method("Client", "enableRouting", policy)
+                    .invoke(client, Enum.valueOf((Class<Enum>) policy, routing));
+            Project.method("NodeRouter", "setHedging", double.class).invoke(router, hedgePercentile);
+            if (sniff) Project.method("NodeRouter", "startSniffing", long.class).invoke(router, 60000L);
+        }
+
+        query = CannedData.text(new Random(42), 300);
+        fullTextQuery = Project.method("Client", "fullTextQuery", String.class, Project.type("QueryResults"));
+        close = Project.method("Client", "close");
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        close.invoke(client);
+        for (StubElasticsearch stub : stubs) stub.close();
+    }
+
+    @Benchmark
+    public Object fullTextQuery(Replies replies) throws Throwable {
+        fullTextQuery.invoke(client, query, replies.replies);
+        return replies.replies;
+    }
+}
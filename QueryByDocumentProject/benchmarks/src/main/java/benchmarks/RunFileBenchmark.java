@@ -0,0 +1,66 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing the replies of a query of 20 hits to the run file (system_qrels) with the RunFileWriter, plain
+ * and gzip compressed. A new file and writer are created for every iteration and the writer is closed at its end.
+ * The scores are queries per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RunFileBenchmark {
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private Object replies;
+    private File file;
+    private Object writer;
+    private MethodHandle newWriter, write, close;
+    private int queryId;
+
+    @Setup
+    public void setup() throws Throwable {
+        replies = Project.constructor("QueryResults", int.class).invoke(20);
+        MethodHandle add = Project.method("QueryResults", "add", int.class, float.class);
+        for (int i = 0; i < 20; i++) {
+            add.invoke(replies, 190000 + i * 37, 40.0f - i * 0.5f);
+        }
+        file = File.createTempFile("system_qrels", ".txt");
+        newWriter = Project.constructor("RunFileWriter", File.class, String.class, boolean.class);
+        write = Project.method("RunFileWriter", "write", int.class, Project.type("QueryResults"));
+        close = Project.method("RunFileWriter", "close");
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws Throwable {
+        file.delete();
+        writer = newWriter.invoke(file, "fullTextQuery", gzip);
+        queryId = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws Throwable {
+        close.invoke(writer);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void write() throws Throwable {
+        write.invoke(writer, ++queryId, replies);
+    }
+}
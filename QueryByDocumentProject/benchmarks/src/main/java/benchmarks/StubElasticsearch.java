@@ -0,0 +1,152 @@
+// Tsogkas Evangelos 3150185
+
+package benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local http server that answers like an elastic search node, with canned responses after a fixed latency:
+ * <ul>
+ * <li>'_bulk': every document created</li>
+ * <li>'_search': 'hits' hits</li>
+ * <li>'_msearch': one search response per search of the request</li>
+ * <li>HEAD of an index: the index exists</li>
+ * <li>'_nodes/http': the nodes set with {@link #setNodes}, for sniffing</li>
+ * </ul>
+ * Any other request gets an empty json object.
+ */
+final class StubElasticsearch implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private volatile long latencyMillis;
+    private volatile String[] nodes = new String[0];
+    private final byte[] search;
+    private final String multiSearchItem;
+
+    /**
+     * Starts the server on a free port of the loopback address.
+     * @param latencyMillis The time to wait before each response
+     * @param hits The number of hits of a search response
+     */
+    StubElasticsearch(long latencyMillis, int hits) throws IOException {
+        this.latencyMillis = latencyMillis;
+        String response = CannedData.searchResponse(hits, false);
+        search = response.getBytes(StandardCharsets.UTF_8);
+        multiSearchItem = response.substring(0, response.length() - 1) + ",\"status\":200}";
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return The port the server listens to
+     */
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Changes the latency, e.g. to simulate a gc pause of the node.
+     * @param latencyMillis The time to wait before each response
+     */
+    void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the nodes of the '_nodes/http' response.
+     * @param addresses The published http addresses of the nodes, as 'ip:port'
+     */
+    void setNodes(String... addresses) {
+        nodes = addresses.clone();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /* Answers a request. */
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange.getRequestBody());
+        String path = exchange.getRequestURI().getPath();
+        byte[] response;
+        if (path.endsWith("/_bulk")) {
+            response = CannedData.bulkResponse(lines(body) / 2).getBytes(StandardCharsets.UTF_8);
+        }
+        else if (path.endsWith("/_msearch")) {
+            StringBuilder responses = new StringBuilder("{\"responses\":[");
+            for (int i = 0, searches = lines(body) / 2; i < searches; i++) {
+                if (i > 0) responses.append(',');
+                responses.append(multiSearchItem);
+            }
+            response = responses.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        }
+        else if (path.endsWith("/_search")) {
+            response = search;
+        }
+        else if (path.endsWith("/_nodes/http")) {
+            StringBuilder responses = new StringBuilder("{\"nodes\":{");
+            String[] addresses = nodes;
+            for (int i = 0; i < addresses.length; i++) {
+                if (i > 0) responses.append(',');
+                responses.append("\"node").append(i).append("\":{\"http\":{\"publish_address\":\"").append(addresses[i]).append("\"}}");
+            }
+            response = responses.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+        }
+        else {
+            response = "{}".getBytes(StandardCharsets.UTF_8);
+        }
+
+        long latencyMillis = this.latencyMillis;
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+        }
+        else {
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        }
+        exchange.close();
+    }
+
+    /* Reads a request body. */
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) body.write(buffer, 0, n);
+        return body.toByteArray();
+    }
+
+    /* Counts the lines of an NDJSON body. */
+    private static int lines(byte[] body) {
+        int lines = 0;
+        for (byte b : body) {
+            if (b == '\n') lines++;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,248 @@
+// Tsogkas Evangelos 3150185
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams documents to elastic search in bulk requests that are capped by number of documents and size in bytes.
+ *
+ * At most 'concurrentRequests' bulk requests are in flight at any time. {@link #add} blocks while that limit is
+ * reached, so memory use stays bounded no matter how many documents are added.
+ * Items rejected by the cluster (status 429) are retried with exponential backoff.
+ */
+public class BulkIngester {
+
+    public static final int DEFAULT_MAX_DOCS = 1000;
+    public static final long DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENT_REQUESTS = 2;
+
+    private static final int MAX_RETRIES = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+
+    private final RestHighLevelClient client;
+    private final String indexName;
+    private final int maxDocs;
+    private final long maxBytes;
+    private final int concurrentRequests;
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService retryScheduler;
+
+    private ItemListener itemListener;
+    private ClientMetrics metrics;
+
+    private BulkRequest pending = new BulkRequest();
+    private final AtomicInteger batches = new AtomicInteger();
+    private final AtomicLong docsIndexed = new AtomicLong();
+    private final AtomicLong docsFailed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final long startTime = System.nanoTime();
+
+    /* A batch of documents as it was first sent. Retries send only its rejected documents. */
+    private static class Batch {
+        final int number;
+        final int docs;
+        final long bytes;
+        final long start; //time in nanos the batch was first sent
+
+        Batch(int number, BulkRequest request) {
+            this.number = number;
+            docs = request.numberOfActions();
+            bytes = request.estimatedSizeInBytes();
+            start = System.nanoTime();
+        }
+    }
+
+    /**
+     * Receives the documents that were indexed or deleted successfully.
+     */
+    public interface ItemListener {
+
+        /**
+         * Called from the thread that handles the bulk response.
+         * @param id The document id
+         * @param deleted True if the document was deleted, false if it was indexed
+         */
+        void onSuccess(String id, boolean deleted);
+    }
+
+    /**
+     * Constructor.
+     * @param client The rest high level client
+     * @param indexName The index to insert the documents to
+     * @param maxDocs Maximum number of documents of a bulk request
+     * @param maxBytes Maximum size of a bulk request in bytes
+     * @param concurrentRequests Maximum number of bulk requests in flight
+     */
+    public BulkIngester(RestHighLevelClient client, String indexName, int maxDocs, long maxBytes, int concurrentRequests) {
+        this.client = client;
+        this.indexName = indexName;
+        this.maxDocs = maxDocs;
+        this.maxBytes = maxBytes;
+        this.concurrentRequests = concurrentRequests;
+        inFlight = new Semaphore(concurrentRequests);
+        retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Adds a document. Sends the pending bulk request if it reached its limits.
+     * @param id The document id
+     * @param source The document as a json string
+     */
+    public synchronized void add(String id, String source) throws InterruptedException {
+        pending.add(new IndexRequest(indexName, "_doc", id).source(source, XContentType.JSON));
+        if (pending.numberOfActions() >= maxDocs || pending.estimatedSizeInBytes() >= maxBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Deletes a document. Sends the pending bulk request if it reached its limits.
+     * @param id The document id
+     */
+    public synchronized void delete(String id) throws InterruptedException {
+        pending.add(new DeleteRequest(indexName, "_doc", id));
+        if (pending.numberOfActions() >= maxDocs || pending.estimatedSizeInBytes() >= maxBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Sets the listener of the documents that were indexed or deleted successfully.
+     * @param itemListener The listener
+     */
+    public void setItemListener(ItemListener itemListener) {
+        this.itemListener = itemListener;
+    }
+
+    /**
+     * Sets the metrics to record the latency of the bulk requests, the failed items and the retries to.
+     * @param metrics The metrics of the client
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sends the pending bulk request, waits for all bulk requests to complete and prints a summary. Must be called
+     * even if adding the documents failed, since the thread of the retries keeps the jvm alive until then.
+     */
+    public synchronized void close() throws InterruptedException {
+        try {
+            flush();
+            inFlight.acquire(concurrentRequests);
+            inFlight.release(concurrentRequests);
+        }
+        finally {
+            //the retries that are already scheduled still run
+            retryScheduler.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.println("{\n\tbatches : " + batches.get());
+        System.out.println("\tindexed : " + docsIndexed.get());
+        System.out.println("\tfailures : " + docsFailed.get());
+        System.out.println("\tretries : " + retries.get());
+        System.out.println("\tdocs/sec : " + (int) (docsIndexed.get() / seconds) + "\n}");
+    }
+
+    /* Sends the pending bulk request. Blocks while the maximum number of requests are in flight. */
+    private void flush() throws InterruptedException {
+        if (pending.numberOfActions() == 0) return;
+        BulkRequest request = pending;
+        pending = new BulkRequest();
+        inFlight.acquire();
+        send(request, new Batch(batches.incrementAndGet(), request), 0);
+    }
+
+    /* Sends a bulk request of a batch. The permit of the batch is released when it is completed or out of retries. */
+    private void send(final BulkRequest request, final Batch batch, final int attempt) {
+        final long requestStart = System.nanoTime();
+        client.bulkAsync(request, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                if (metrics != null) metrics.record(ClientMetrics.Operation.BULK_REQUEST, requestStart);
+                BulkRequest rejected = new BulkRequest();
+                int indexed = 0;
+                for (BulkItemResponse item : response.getItems()) {
+                    if (!item.isFailed()) {
+                        indexed++;
+                        if (itemListener != null) {
+                            itemListener.onSuccess(item.getId(), item.getOpType() == DocWriteRequest.OpType.DELETE);
+                        }
+                    }
+                    else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS && attempt < MAX_RETRIES) {
+                        rejected.add(request.requests().get(item.getItemId()));
+                    }
+                    else {
+                        docsFailed.incrementAndGet();
+                        if (metrics != null) metrics.addBulkItemFailures(1);
+                    }
+                }
+                docsIndexed.addAndGet(indexed);
+                if (rejected.numberOfActions() > 0) {
+                    retry(rejected, batch, attempt);
+                }
+                else {
+                    report(batch);
+                    inFlight.release();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (attempt < MAX_RETRIES && isRejected(e)) {
+                    retry(request, batch, attempt);
+                }
+                else {
+                    e.printStackTrace();
+                    docsFailed.addAndGet(request.numberOfActions());
+                    if (metrics != null) {
+                        metrics.recordError(ClientMetrics.Operation.BULK_REQUEST);
+                        metrics.addBulkItemFailures(request.numberOfActions());
+                    }
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    /* Returns true if the whole bulk request was rejected with status 429. The high level client reports the
+       status of an error response as an ElasticsearchStatusException, the low level client as a ResponseException. */
+    private static boolean isRejected(Exception e) {
+        if (e instanceof ElasticsearchStatusException) {
+            return ((ElasticsearchStatusException) e).status() == RestStatus.TOO_MANY_REQUESTS;
+        }
+        return e instanceof ResponseException && ((ResponseException) e).getResponse().getStatusLine().getStatusCode() == 429;
+    }
+
+    /* Resends a bulk request after an exponentially growing delay. */
+    private void retry(final BulkRequest request, final Batch batch, final int attempt) {
+        retries.addAndGet(request.numberOfActions());
+        if (metrics != null) metrics.addRetries(request.numberOfActions());
+        long delay = INITIAL_BACKOFF_MILLIS << attempt;
+        retryScheduler.schedule(() -> send(request, batch, attempt + 1), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /* Prints the throughput of a completed batch, over all its documents and the time since it was first sent. */
+    private void report(Batch batch) {
+        long millis = Math.max(1, (System.nanoTime() - batch.start) / 1000000);
+        System.out.println("Batch " + batch.number + ": " + batch.docs + " docs, " + batch.bytes / 1024 + " KB in "
+                + millis + " ms (" + batch.docs * 1000L / millis + " docs/sec)");
+    }
+}
@@ -1,54 +1,97 @@
 // Tsogkas Evangelos 3150185
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.*;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.*;
-import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.MoreLikeThisQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.ScoreSortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * This class serves as a rest client for elastic search.
  */
-public class Client {
+public class Client implements SearchBackend {
 
     private RestHighLevelClient client;
     private String indexName;
+    private int k = 20; //number of documents to retrieve
+    private QueryCache cache;
+    private File cacheFile;
+    private boolean lean; //if true only ids and scores are fetched
+    private File manifestFile;
+    private QueryReducer reducer; //if not null full text queries are reduced to their top terms
+    private final ClientMetrics metrics = new ClientMetrics();
+    private final HttpHost[] hosts;
+    private NodeRouter router; //if not null searches are routed by it
+
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 5000;
 
     /**
      *  Constructor. Initializes the rest high level client.
      */
     public Client(String indexName) {
+        this(indexName, new HttpHost("localhost", 9200, "http"), new HttpHost("localhost", 9201, "http"));
+    }
+
+    /**
+     * Constructor. Initializes the rest high level client with the given nodes.
+     * @param indexName The name of the index
+     * @param hosts The http addresses of the nodes
+     */
+    public Client(String indexName, HttpHost... hosts) {
         this.indexName = indexName;
-        client = new RestHighLevelClient(
-            RestClient.builder(
-                new HttpHost("localhost", 9200, "http"),
-                new HttpHost("localhost", 9201, "http")));
+        this.hosts = hosts.clone();
+        manifestFile = new File("manifest/" + indexName + ".manifest");
+        client = new RestHighLevelClient(RestClient.builder(hosts).setHttpClientConfigCallback(metrics::instrument));
     }
 
     /**
      * Closes the rest client.
      */
     public void close() {
+        metrics.stopExport();
         try {
+            if (router != null) {
+                System.out.println(router.status());
+                router.close();
+            }
+            if (cache != null) {
+                System.out.println("Cache hits: " + cache.getHits() + ", misses: " + cache.getMisses());
+                if (cacheFile != null && indexExists()) cache.save(cacheFile, indexFingerprint());
+            }
             client.close();
             System.out.println("Client closed");
         }
@@ -57,6 +100,101 @@ public class Client {
         }
     }
 
+    /**
+     * Returns the latency and throughput metrics of the operations of the client.
+     * @return The metrics
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Routes the searches through a {@link NodeRouter} over the nodes of the client, instead of the round robin of
+     * the rest client. Routed searches are always sent with the low level client and only their ids and scores are
+     * parsed. The other operations are not routed.
+     * @param policy The routing policy
+     * @return The router, to enable hedging and sniffing
+     */
+    public NodeRouter enableRouting(NodeRouter.Policy policy) {
+        try {
+            if (router != null) router.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        router = new NodeRouter(hosts, policy, metrics::instrument);
+        return router;
+    }
+
+    /**
+     * Enables or disables lean responses. In lean mode the '_source' of the hits is not fetched, the response is
+     * filtered down to ids and scores and it is parsed as a stream by the {@link HitsParser}.
+     * @param lean True to enable lean responses
+     */
+    public void setLeanResponses(boolean lean) {
+        this.lean = lean;
+    }
+
+    /**
+     * Enables or disables query reduction. A reduced full text query sends only the highest weighted terms of the
+     * query text, as a bool query of term queries boosted by their weights. See {@link QueryReducer}.
+     * @param maxTerms The maximum number of terms of a full text query, or 0 to send the whole text
+     */
+    public void setQueryReduction(int maxTerms) {
+        reducer = maxTerms > 0 ? new QueryReducer(client.getLowLevelClient(), indexName, maxTerms) : null;
+    }
+
+    /**
+     * @return The query reducer or null if query reduction is disabled
+     */
+    public QueryReducer getQueryReducer() {
+        return reducer;
+    }
+
+    /**
+     * Enables the query cache. Replies of full text and MLT queries are cached by query text, query type, k, MLT
+     * parameters and index name. The cache is cleared when the index is created, deleted or data are inserted.
+     * @param maxEntries The maximum number of cached queries
+     * @param ttlMillis The time to live of a cached query in milliseconds
+     * @param file The file to keep the cache in between runs, or null. It is loaded now and saved on {@link #close()}
+     */
+    public void enableCache(int maxEntries, long ttlMillis, File file) {
+        cache = new QueryCache(maxEntries, ttlMillis);
+        cacheFile = file;
+        if (file != null && indexExists()) {
+            try {
+                int loaded = cache.load(file, indexFingerprint());
+                System.out.println("Loaded " + loaded + " cached queries");
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return The query cache or null if it is not enabled
+     */
+    public QueryCache getCache() {
+        return cache;
+    }
+
+    /* Clears the query cache, because the index changed. */
+    private void invalidateCache() {
+        if (cache != null) {
+            cache.clear();
+            if (cacheFile != null) cacheFile.delete();
+        }
+    }
+
+    /* Returns a fingerprint of the index that changes when it is recreated or its documents change. */
+    private String indexFingerprint() throws IOException {
+        Map<String, String> params = new HashMap<>();
+        params.put("h", "uuid,docs.count");
+        Response response = client.getLowLevelClient().performRequest("GET", "/_cat/indices/" + indexName, params);
+        return EntityUtils.toString(response.getEntity()).trim();
+    }
+
     /**
      * Checks if the index exists.
      * @return True if the index exists
@@ -76,73 +214,142 @@ public class Client {
     /**
      * Creates the index if it does not exist. Uses low level client.
      *
-     * Analysis: standard analyzer (tokenization, lowercase, stopword removal) + stemming filter
+     * Analysis: standard tokenizer, lowercase, stopword removal (no stemming, see {@link IndexSettings})
      * Similarity: default (BM25)
      */
     public void createIndex() {
+        createIndex(new IndexSettings());
+    }
+
+    /**
+     * Creates the index if it does not exist, with the given settings. Uses low level client.
+     * @param settings The number of shards, analysis and similarity settings
+     */
+    public void createIndex(IndexSettings settings) {
         System.out.println("Creating index...");
+        invalidateCache();
+        manifestFile.delete();
+        long start = System.nanoTime();
         try {
-            String indexConfiguration = "{\n" +
-                    "    \"settings\": {\n" +
-                    "        \"analysis\" : {\n" +
-                    "            \"analyzer\" : {\n" +
-                    "                \"my_analyzer\" : {\n" +
-                    "                    \"type\" : \"standard\",\n" +
-                    "                    \"stopwords\": \"_english_\",\n" +
-                    "                    \"filter\" : {\n" +
-                    "                        \"my_stemmer\" : {\n" +
-                    "                            \"type\" : \"stemmer\",\n" +
-                    "                            \"name\" : \"english\"\n" +
-                    "                        }\n" +
-                    "                    }\n" +
-                    "                }     \n" +
-                    "                \n" +
-                    "            }\n" +
-                    "        },\n" +
-                    "        \"index\" : {\n" +
-                    "          \"number_of_shards\" : 5, \n" +
-                    "          \"similarity\" : {\n" +
-                    "              \"default\" : {\n" +
-                    "                \"type\" : \"BM25\"\n" +
-                    "                }\n" +
-                    "            }\n" +
-                    "        }\n" +
-                    "    },\n" +
-                    "   \"mappings\":{\n" +
-                    "      \"_doc\": {\n" +
-                    "        \"properties\":{\n" +
-                    "          \"text\": {\n" +
-                    "            \"type\":\"text\",\n" +
-                    "            \"analyzer\":\"my_analyzer\",\n" +
-                    "            \"term_vector\" : \"yes\"\n" +
-                    "          }\n" +
-                    "        }\n" +
-                    "      }\n" +
-                    "   }\n" +
-                    "}";
-            StringEntity entity = new StringEntity(indexConfiguration, ContentType.APPLICATION_JSON);
+            StringEntity entity = new StringEntity(settings.toJson(), ContentType.APPLICATION_JSON);
 
             Response response = client.getLowLevelClient().performRequest("PUT", "/" + indexName, Collections.emptyMap(), entity);
+            metrics.record(ClientMetrics.Operation.CREATE_INDEX, start);
             boolean acknowledged = response.getStatusLine().getStatusCode()==200;
             System.out.println("{\n\tacknowledged : " + acknowledged + "\n}");
         }
         catch (IOException e) {
+            metrics.recordError(ClientMetrics.Operation.CREATE_INDEX);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Inserts data with settings tuned for bulk loading. Before loading, disables refresh, removes the replicas and
+     * makes the translog asynchronous. After loading, restores the original settings, refreshes the index and
+     * optionally force merges it. Prints the documents loaded and the load rate, which counts only the time of the
+     * load, then the time of the refresh and the merge and the final segment statistics.
+     * @param load Inserts the data, e.g. {@code () -> client.insertData()}
+     * @param maxSegments The number of segments per shard to force merge to, or 0 to not force merge
+     */
+    public void bulkLoad(Runnable load, int maxSegments) {
+        String[] names = {"index.refresh_interval", "index.number_of_replicas", "index.translog.durability"};
+        try {
+            //the explicitly set values are restored and the others are reset to their defaults
+            Map<String, String> params = new HashMap<>();
+            params.put("flat_settings", "true");
+            Response response = client.getLowLevelClient().performRequest("GET", "/" + indexName + "/_settings", params);
+            JSONObject indexSettings = (JSONObject) ((JSONObject) ((JSONObject) new JSONParser()
+                    .parse(EntityUtils.toString(response.getEntity()))).get(indexName)).get("settings");
+            Map<String, Object> original = new LinkedHashMap<>();
+            for (String name : names) {
+                original.put(name, indexSettings.get(name));
+            }
+
+            Map<String, Object> bulkSettings = new LinkedHashMap<>();
+            bulkSettings.put(names[0], "-1");
+            bulkSettings.put(names[1], 0);
+            bulkSettings.put(names[2], "async");
+            updateSettings(bulkSettings);
+            System.out.println("Bulk load settings: " + bulkSettings);
+
+            //the documents loaded are the index operations on the primaries during the load
+            long indexedBefore = indexTotal(primaryStats("indexing"));
+            long start = System.nanoTime();
+            double loadSeconds;
+            try {
+                load.run();
+            }
+            finally {
+                loadSeconds = (System.nanoTime() - start) / 1e9;
+                updateSettings(original);
+                System.out.println("Restored settings: " + original);
+            }
+            long loaded = indexTotal(primaryStats("indexing")) - indexedBefore;
+
+            start = System.nanoTime();
+            client.getLowLevelClient().performRequest("POST", "/" + indexName + "/_refresh");
+            if (maxSegments > 0) {
+                System.out.println("Force merging to " + maxSegments + " segments per shard...");
+                Map<String, String> mergeParams = new HashMap<>();
+                mergeParams.put("max_num_segments", String.valueOf(maxSegments));
+                client.getLowLevelClient().performRequest("POST", "/" + indexName + "/_forcemerge", mergeParams);
+            }
+            double mergeSeconds = (System.nanoTime() - start) / 1e9;
+
+            JSONObject primaries = primaryStats("docs,segments");
+            long docs = ((Number) ((JSONObject) primaries.get("docs")).get("count")).longValue();
+            JSONObject segments = (JSONObject) primaries.get("segments");
+            System.out.println("{\n\tdocs loaded : " + loaded);
+            System.out.println("\tload seconds : " + String.format(Locale.ROOT, "%.1f", loadSeconds));
+            System.out.println("\tdocs/sec : " + (int) (loaded / Math.max(loadSeconds, 1e-9)));
+            System.out.println("\t" + (maxSegments > 0 ? "refresh and merge" : "refresh") + " seconds : "
+                    + String.format(Locale.ROOT, "%.1f", mergeSeconds));
+            System.out.println("\tdocs : " + docs);
+            System.out.println("\tsegments : " + segments.get("count"));
+            System.out.println("\tsegments memory (bytes) : " + segments.get("memory_in_bytes") + "\n}");
+        }
+        catch (IOException | ParseException e) {
             e.printStackTrace();
         }
     }
 
+    /* Updates dynamic settings of the index. Null values reset settings to their defaults. */
+    private void updateSettings(Map<String, Object> settings) throws IOException {
+        XContentBuilder body = XContentFactory.jsonBuilder().map(settings);
+        client.getLowLevelClient().performRequest("PUT", "/" + indexName + "/_settings", Collections.emptyMap(),
+                new StringEntity(body.bytes().utf8ToString(), ContentType.APPLICATION_JSON));
+    }
+
+    /* Returns the statistics of the primary shards of the index, e.g. 'indexing' or 'docs,segments'. */
+    private JSONObject primaryStats(String stats) throws IOException, ParseException {
+        Response response = client.getLowLevelClient().performRequest("GET", "/" + indexName + "/_stats/" + stats);
+        return (JSONObject) ((JSONObject) ((JSONObject) new JSONParser()
+                .parse(EntityUtils.toString(response.getEntity()))).get("_all")).get("primaries");
+    }
+
+    /* Returns the number of index operations of the statistics of the primary shards. */
+    private static long indexTotal(JSONObject primaries) {
+        return ((Number) ((JSONObject) primaries.get("indexing")).get("index_total")).longValue();
+    }
+
     /**
      * Deletes the index.
      */
     public void deleteIndex() {
         DeleteIndexRequest request = new DeleteIndexRequest(indexName);
         System.out.println("Deleting index...");
+        invalidateCache();
+        manifestFile.delete();
+        long start = System.nanoTime();
         try {
             AcknowledgedResponse deleteIndexResponse = client.indices().delete(request);
+            metrics.record(ClientMetrics.Operation.DELETE_INDEX, start);
             boolean response = deleteIndexResponse.isAcknowledged();
             System.out.println("{\n\tacknowledged : " + response + "\n}");
         }
         catch (IOException e) {
+            metrics.recordError(ClientMetrics.Operation.DELETE_INDEX);
             e.printStackTrace();
         }
     }
@@ -153,6 +360,8 @@ public class Client {
     public void insertData() {
         try {
             System.out.println("Inserting data...");
+            invalidateCache();
+            long start = System.nanoTime();
             BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new DataInputStream(new FileInputStream("output/texts.json"))));
             JSONParser jsonParser = new JSONParser();
             JSONObject jsonObject;
@@ -169,91 +378,610 @@ public class Client {
                             .source(jsonObject));
                 }
             }
+            long requestStart = System.nanoTime();
             BulkResponse bulkResponse = client.bulk(request);
+            metrics.record(ClientMetrics.Operation.BULK_REQUEST, requestStart);
+            if (bulkResponse.hasFailures()) {
+                int failures = 0;
+                for (BulkItemResponse item : bulkResponse.getItems()) {
+                    if (item.isFailed()) failures++;
+                }
+                metrics.addBulkItemFailures(failures);
+            }
+            metrics.record(ClientMetrics.Operation.INSERT_DATA, start);
             System.out.println("{\n\ttotal : " + bulkResponse.getItems().length);
             System.out.println("\tfailures : " + bulkResponse.hasFailures());
-            System.out.println("\tstatus : " + bulkResponse.status() + "\n}");
+            System.out.println("\tstatus : " + bulkResponse.status());
+            System.out.println("\tdocs/sec : " + (int) (bulkResponse.getItems().length / ((System.nanoTime() - start) / 1e9)) + "\n}");
         }
         catch (IOException | ParseException e) {
+            metrics.recordError(ClientMetrics.Operation.INSERT_DATA);
             e.printStackTrace();
         }
     }
 
     /**
-     * Makes a full text query.
-     * @param query The query
-     * @return A list of pairs(id, score) of documents retrieved
+     * Inserts the data to the index from the 'texts.json' file located in directory 'output', using streaming bulk
+     * requests. Reads one document at a time so memory use does not depend on the size of the collection.
+     * @param maxDocs Maximum number of documents of a bulk request
+     * @param maxBytes Maximum size of a bulk request in bytes
+     * @param concurrentRequests Maximum number of bulk requests in flight
      */
-    public ArrayList<float[]> fullTextQuery(String query) {
-        ArrayList<float[]> replies = new ArrayList<>();
-        int k = 20; //number of documents to retrieve
+    public void insertData(int maxDocs, long maxBytes, int concurrentRequests) {
+        System.out.println("Inserting data...");
+        invalidateCache();
+        long start = System.nanoTime();
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream("output/texts.json"), "UTF-8"))) {
+            BulkIngester ingester = new BulkIngester(client, indexName, maxDocs, maxBytes, concurrentRequests);
+            ingester.setMetrics(metrics);
+            JSONParser jsonParser = new JSONParser();
+            String readLine;
+            String id="";
+            try {
+                while((readLine = bufferedReader.readLine()) != null) {
+                    if (readLine.startsWith("{\"index")) {
+                        id = (String) ((JSONObject) ((JSONObject) jsonParser.parse(readLine)).get("index")).get("_id");
+                    }
+                    else {
+                        ingester.add(id, readLine);
+                    }
+                }
+            }
+            finally {
+                ingester.close();
+            }
+            metrics.record(ClientMetrics.Operation.INSERT_DATA, start);
+        }
+        catch (IOException | ParseException | InterruptedException e) {
+            metrics.recordError(ClientMetrics.Operation.INSERT_DATA);
+            e.printStackTrace();
+        }
+    }
 
-        MatchQueryBuilder matchQueryBuilder = QueryBuilders.matchQuery("text", query);
+    /**
+     * Inserts the data to the index from the 'texts.json' file located in directory 'output' without parsing it.
+     * The file is memory mapped and sent in slices of complete lines to the bulk endpoint of the low level client.
+     * @param maxBytes Approximate size of a bulk request in bytes
+     * @param concurrentRequests Maximum number of bulk requests in flight
+     * @param gzip True to gzip compress the bulk requests
+     */
+    public void insertRawData(long maxBytes, int concurrentRequests, boolean gzip) {
+        System.out.println("Inserting data...");
+        invalidateCache();
+        long start = System.nanoTime();
+        try {
+            RawBulkLoader loader = new RawBulkLoader(client.getLowLevelClient(), indexName, maxBytes, concurrentRequests, gzip);
+            loader.setMetrics(metrics);
+            loader.load(new File("output/texts.json"));
+            metrics.record(ClientMetrics.Operation.INSERT_DATA, start);
+        }
+        catch (IOException | InterruptedException e) {
+            metrics.recordError(ClientMetrics.Operation.INSERT_DATA);
+            e.printStackTrace();
+        }
+    }
 
-        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
-        sourceBuilder.size(k+1);
-        sourceBuilder.sort(new ScoreSortBuilder().order(SortOrder.DESC));
-        sourceBuilder.query(matchQueryBuilder);
+    /**
+     * Inserts the data to the index directly from the xml collection, without the intermediate files.
+     * Parsing and indexing overlap, see {@link IngestPipeline}.
+     * @param files The xml files of the collection
+     * @param parserThreads The number of threads that parse the xml files
+     * @param sideOutput True to also write the files of {@link CreateFilesMain} to directory 'output'
+     */
+    public void insertCollection(File[] files, int parserThreads, boolean sideOutput) {
+        System.out.println("Inserting data...");
+        invalidateCache();
+        File xmlDirectory = null, jsonFile = null;
+        if (sideOutput) {
+            if (new File("output").exists()) {
+                System.out.println("Directory output already exists, the files will not be written");
+            }
+            else {
+                xmlDirectory = new File("output/new_xml_collection");
+                xmlDirectory.mkdirs();
+                jsonFile = new File("output/texts.json");
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            BulkIngester ingester = new BulkIngester(client, indexName, BulkIngester.DEFAULT_MAX_DOCS,
+                    BulkIngester.DEFAULT_MAX_BYTES, BulkIngester.DEFAULT_CONCURRENT_REQUESTS);
+            ingester.setMetrics(metrics);
+            new IngestPipeline(ingester, parserThreads, xmlDirectory, jsonFile).run(files);
+            metrics.record(ClientMetrics.Operation.INSERT_DATA, start);
+        }
+        catch (IOException | InterruptedException e) {
+            metrics.recordError(ClientMetrics.Operation.INSERT_DATA);
+            e.printStackTrace();
+        }
+    }
 
-        SearchRequest searchRequest = new SearchRequest(indexName);
-        searchRequest.source(sourceBuilder);
+    /**
+     * Synchronizes the index with the xml collection incrementally. Only new or changed projects are indexed and
+     * removed projects are deleted, using a manifest of the content hashes of the indexed projects
+     * (Path: manifest/&lt;index name&gt;.manifest). The manifest is updated only for documents acknowledged by the
+     * cluster and saved periodically, so an interrupted sync resumes where it stopped when it is run again.
+     * @param files The xml files of the collection
+     */
+    public void syncCollection(File[] files) {
+        System.out.println("Synchronizing index...");
+        invalidateCache();
+        long start = System.nanoTime();
         try {
-            SearchResponse searchResponse = client.search(searchRequest);
-            SearchHits hits = searchResponse.getHits();
-            SearchHit[] searchHits = hits.getHits();
-
-            //i=1 because the 1st hit is the query text itself so we ignore it
-            for (int i=1; i<searchHits.length; i++) {
-                float[] doc = {Integer.parseInt(searchHits[i].getId()), searchHits[i].getScore()};
-                replies.add(doc);
+            final IngestManifest manifest = IngestManifest.load(manifestFile);
+            final HashMap<Integer, Long> hashes = new HashMap<>();
+            final long[] lastCheckpoint = {System.currentTimeMillis()};
+            BulkIngester ingester = new BulkIngester(client, indexName, BulkIngester.DEFAULT_MAX_DOCS,
+                    BulkIngester.DEFAULT_MAX_BYTES, BulkIngester.DEFAULT_CONCURRENT_REQUESTS);
+            ingester.setMetrics(metrics);
+            ingester.setItemListener((id, deleted) -> {
+                int rcn = Integer.parseInt(id);
+                if (deleted) {
+                    manifest.remove(rcn);
+                }
+                else {
+                    Long hash;
+                    synchronized (hashes) {
+                        hash = hashes.remove(rcn);
+                    }
+                    if (hash != null) manifest.put(rcn, hash);
+                }
+                checkpoint(manifest, lastCheckpoint);
+            });
+
+            int changed = 0, unchanged = 0, removed = 0;
+            try {
+                //indexes new and changed projects
+                ProjectParser parser = new ProjectParser();
+                BitSet seen = new BitSet();
+                File[] sorted = files.clone();
+                Arrays.sort(sorted);
+                for (File file : sorted) {
+                    for (ProjectRecord project : parser.parse(file)) {
+                        int rcn = Integer.parseInt(project.rcn.trim());
+                        long hash = IngestManifest.hash(project);
+                        seen.set(rcn);
+                        if (manifest.contains(rcn, hash)) {
+                            unchanged++;
+                            continue;
+                        }
+                        synchronized (hashes) {
+                            hashes.put(rcn, hash);
+                        }
+                        ingester.add(String.valueOf(rcn), project.toSource());
+                        changed++;
+                    }
+                }
+
+                //deletes removed projects
+                for (int rcn : manifest.rcns()) {
+                    if (!seen.get(rcn)) {
+                        ingester.delete(String.valueOf(rcn));
+                        removed++;
+                    }
+                }
+            }
+            finally {
+                ingester.close();
             }
+            manifest.save(manifestFile);
+            System.out.println("{\n\tunchanged : " + unchanged);
+            System.out.println("\tnew or changed : " + changed);
+            System.out.println("\tremoved : " + removed);
+            System.out.println("\tmanifest : " + manifest.size() + "\n}");
+            metrics.record(ClientMetrics.Operation.INSERT_DATA, start);
+        }
+        catch (IOException | XMLStreamException | InterruptedException e) {
+            metrics.recordError(ClientMetrics.Operation.INSERT_DATA);
+            e.printStackTrace();
+        }
+    }
+
+    /* Saves the manifest if the last checkpoint was long ago. */
+    private void checkpoint(IngestManifest manifest, long[] lastCheckpoint) {
+        synchronized (lastCheckpoint) {
+            long now = System.currentTimeMillis();
+            if (now - lastCheckpoint[0] < CHECKPOINT_INTERVAL_MILLIS) return;
+            lastCheckpoint[0] = now;
+        }
+        try {
+            manifest.save(manifestFile);
         }
         catch (IOException e) {
             e.printStackTrace();
         }
+    }
+
+    /**
+     * Makes a full text query.
+     * @param query The query
+     * @return The pairs(id, score) of documents retrieved
+     */
+    public QueryResults fullTextQuery(String query) {
+        QueryResults replies = new QueryResults(k);
+        fullTextQuery(query, replies);
         return replies;
     }
 
+    /**
+     * Makes a full text query. Reuses the given results, so that a sweep of queries does not allocate per hit.
+     * @param query The query
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     */
+    public void fullTextQuery(String query, QueryResults replies) {
+        cachedSearch(QueryRequest.Type.FULL_TEXT, query, QueryParameters.DEFAULT, replies);
+    }
+
+    /**
+     * Makes a full text query with the given parameters. The parameters are not applied to queries reduced to their
+     * top terms, see {@link #setQueryReduction}.
+     * @param query The query
+     * @param parameters The parameters of the match query
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     * @return False if the query failed, in which case the replies are empty
+     */
+    public boolean fullTextQuery(String query, QueryParameters parameters, QueryResults replies) {
+        return cachedSearch(QueryRequest.Type.FULL_TEXT, query, parameters, replies);
+    }
+
     /**
      * Makes an MLT query.
      * @param query The 'like' text.
-     * @return A list of pairs(id, score) of documents retrieved
+     * @return The pairs(id, score) of documents retrieved
      */
-    public ArrayList<float[]> MLTQuery(String query) {
-        ArrayList<float[]> replies = new ArrayList<>();
-        int k = 20; //number of documents to retrieve
-        String[] likeText = {query};
-        String[] fields = {"text"};
+    public QueryResults MLTQuery(String query) {
+        QueryResults replies = new QueryResults(k);
+        MLTQuery(query, replies);
+        return replies;
+    }
+
+    /**
+     * Makes an MLT query. Reuses the given results, so that a sweep of queries does not allocate per hit.
+     * @param query The 'like' text.
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     */
+    public void MLTQuery(String query, QueryResults replies) {
+        cachedSearch(QueryRequest.Type.MLT, query, QueryParameters.DEFAULT, replies);
+    }
+
+    /**
+     * Makes an MLT query with the given parameters.
+     * @param query The 'like' text.
+     * @param parameters The parameters of the MLT query
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     * @return False if the query failed, in which case the replies are empty
+     */
+    public boolean MLTQuery(String query, QueryParameters parameters, QueryResults replies) {
+        return cachedSearch(QueryRequest.Type.MLT, query, parameters, replies);
+    }
+
+    /**
+     * Makes a batch of queries using multi search requests. The queries of a batch are sent in a single request and
+     * are executed concurrently by the cluster.
+     * @param queries The queries, full text or MLT
+     * @param batchSize The maximum number of queries of a multi search request
+     * @return The pairs(id, score) of documents retrieved by each query, in the order of the queries
+     */
+    public ArrayList<QueryResults> batchQuery(List<QueryRequest> queries, int batchSize) {
+        ArrayList<QueryResults> replies = new ArrayList<>(queries.size());
+        //only the queries that are not cached are sent
+        ArrayList<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            QueryResults cached = cache != null ? cache.get(cacheKey(queries.get(i), QueryParameters.DEFAULT)) : null;
+            replies.add(cached != null ? cached.copy() : new QueryResults(k));
+            if (cached == null) misses.add(i);
+        }
+
+        String header = "{\"index\":\"" + indexName + "\"}\n";
+        //in lean mode a response keeps only its took or error and the ids and scores of its hits, so every search
+        //still has an entry in 'responses'
+        Map<String, String> params = new HashMap<>();
+        if (lean) params.put("filter_path", "responses.took,responses.error,responses.hits.hits._id,responses.hits.hits._score");
+        boolean[] failed = new boolean[batchSize];
+        int[] skip = new int[batchSize];
+        for (int from = 0; from < misses.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, misses.size());
+            ArrayList<Integer> sent = new ArrayList<>(to - from);
+            ArrayList<QueryResults> batchReplies = new ArrayList<>(to - from);
+            try {
+                HashMap<String, LinkedHashMap<String, int[]>> termVectors = fetchTermVectors(queries, misses.subList(from, to));
+                StringBuilder body = new StringBuilder();
+                for (int i : misses.subList(from, to)) {
+                    SearchSourceBuilder source = source(queries.get(i), termVectors);
+                    if (source == null) {
+                        System.out.println("Query " + (i + 1) + " failed: document " + queries.get(i).rcn + " not found");
+                        continue;
+                    }
+                    body.append(header).append(toJson(source)).append('\n');
+                    //the 1st hit of a query by text is the query text itself so we ignore it
+                    skip[sent.size()] = queries.get(i).isByDocument() ? 0 : 1;
+                    sent.add(i);
+                    batchReplies.add(replies.get(i));
+                }
+                if (sent.isEmpty()) continue;
+                long start = System.nanoTime();
+                Response response = performSearch("/_msearch", params,
+                        new StringEntity(body.toString(), ContentType.create("application/x-ndjson", "UTF-8")), false);
+
+                int count;
+                try (InputStream in = response.getEntity().getContent()) {
+                    count = HitsParser.parseMultiSearch(in, batchReplies, failed, skip);
+                }
+                metrics.record(ClientMetrics.Operation.MULTI_SEARCH, start);
+                for (int j = 0; j < count; j++) {
+                    if (failed[j]) System.out.println("Query " + (sent.get(j) + 1) + " failed");
+                    else if (cache != null) cache.put(cacheKey(queries.get(sent.get(j)), QueryParameters.DEFAULT), batchReplies.get(j));
+                }
+            }
+            catch (IOException e) {
+                metrics.recordError(ClientMetrics.Operation.MULTI_SEARCH);
+                e.printStackTrace();
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * Makes a full text query by an indexed document. The terms of the document are read from its term vectors and
+     * the document is excluded from the replies by the cluster.
+     * @param rcn The rcn of the query document
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     */
+    public void fullTextQuery(int rcn, QueryResults replies) {
+        replies.copyFrom(batchQuery(Collections.singletonList(new QueryRequest(QueryRequest.Type.FULL_TEXT, rcn)), 1).get(0));
+    }
+
+    /**
+     * Makes an MLT query by an indexed document. The document is referred to by its rcn and excluded from the
+     * replies by the cluster.
+     * @param rcn The rcn of the query document
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     */
+    public void MLTQuery(int rcn, QueryResults replies) {
+        replies.copyFrom(batchQuery(Collections.singletonList(new QueryRequest(QueryRequest.Type.MLT, rcn)), 1).get(0));
+    }
+
+    /* Fetches the term vectors of the documents of the full text queries by document, in a single request. */
+    private HashMap<String, LinkedHashMap<String, int[]>> fetchTermVectors(List<QueryRequest> queries, List<Integer> indices) throws IOException {
+        ArrayList<String> ids = new ArrayList<>();
+        for (int i : indices) {
+            QueryRequest query = queries.get(i);
+            if (query.isByDocument() && query.type == QueryRequest.Type.FULL_TEXT) ids.add(String.valueOf(query.rcn));
+        }
+        if (ids.isEmpty()) return new HashMap<>();
+
+        XContentBuilder body = XContentFactory.jsonBuilder();
+        body.startObject();
+        body.array("ids", ids.toArray(new String[0]));
+        body.startObject("parameters");
+        body.array("fields", "text");
+        body.field("positions", false);
+        body.field("offsets", false);
+        body.field("payloads", false);
+        body.field("term_statistics", false);
+        body.field("field_statistics", false);
+        body.endObject();
+        body.endObject();
+
+        Response response = performSearch("/" + indexName + "/_doc/_mtermvectors",
+                Collections.emptyMap(), new StringEntity(body.bytes().utf8ToString(), ContentType.APPLICATION_JSON), false);
+        try (InputStream in = response.getEntity().getContent()) {
+            return TermVectorsParser.parseMulti(in);
+        }
+    }
+
+    /**
+     * Makes a deep full text or MLT query and hands the hits to a consumer as the pages arrive. Pages are retrieved
+     * with 'search_after' on score and id, so only one page is kept in memory and 'index.max_result_window' does not
+     * limit the depth. Prints the latency of the pages at the end.
+     * @param type The type of query
+     * @param query The query text
+     * @param depth The number of documents to retrieve
+     * @param pageSize The number of documents of a page
+     * @param consumer Receives the pairs(id, score) of documents retrieved, in rank order
+     * @return The number of documents retrieved
+     */
+    public int streamQuery(QueryRequest.Type type, String query, int depth, int pageSize, HitConsumer consumer) {
+        int rank = 0, pages = 0;
+        long totalMillis = 0, maxMillis = 0;
+        boolean first = true;
+        try {
+            SearchSourceBuilder sourceBuilder = type == QueryRequest.Type.MLT
+                    ? mltSource(query, QueryParameters.DEFAULT) : fullTextSource(query, QueryParameters.DEFAULT);
+            sourceBuilder.sort(new FieldSortBuilder("_id").order(SortOrder.ASC));
+            sourceBuilder.fetchSource(false);
+            sourceBuilder.trackScores(true);
+
+            while (rank < depth) {
+                //+1 on the 1st page because the 1st hit is the query text itself so we ignore it
+                int size = Math.min(pageSize, depth - rank) + (first ? 1 : 0);
+                sourceBuilder.size(size);
+                SearchRequest searchRequest = new SearchRequest(indexName);
+                searchRequest.source(sourceBuilder);
+
+                long start = System.nanoTime();
+                SearchResponse searchResponse = client.search(searchRequest);
+                SearchHit[] searchHits = searchResponse.getHits().getHits();
+                long millis = (System.nanoTime() - start) / 1000000;
+                metrics.record(ClientMetrics.Operation.SEARCH_PAGE, start);
+                metrics.recordTook(ClientMetrics.Operation.SEARCH_PAGE, searchResponse.getTook().millis());
+                pages++;
+                totalMillis += millis;
+                maxMillis = Math.max(maxMillis, millis);
+
+                for (int i = first ? 1 : 0; i < searchHits.length; i++) {
+                    consumer.accept(rank++, Integer.parseInt(searchHits[i].getId()), searchHits[i].getScore());
+                }
+                if (searchHits.length < size) break;
+                sourceBuilder.searchAfter(searchHits[searchHits.length - 1].getSortValues());
+                first = false;
+            }
+        }
+        catch (IOException e) {
+            metrics.recordError(ClientMetrics.Operation.SEARCH_PAGE);
+            e.printStackTrace();
+        }
+        if (pages > 0) {
+            System.out.println("Retrieved " + rank + " documents in " + pages + " pages (page latency: mean "
+                    + totalMillis / pages + " ms, max " + maxMillis + " ms)");
+        }
+        return rank;
+    }
+
+    /* Runs a full text or MLT query, using the cache if it is enabled. Returns false if it failed. */
+    private boolean cachedSearch(QueryRequest.Type type, String query, QueryParameters parameters, QueryResults replies) {
+        String key = cache != null ? cacheKey(new QueryRequest(type, query), parameters) : null;
+        QueryResults cached = cache != null ? cache.get(key) : null;
+        if (cached != null) {
+            replies.copyFrom(cached);
+            return true;
+        }
+        ClientMetrics.Operation operation = type == QueryRequest.Type.MLT ? ClientMetrics.Operation.MLT_QUERY : ClientMetrics.Operation.FULL_TEXT_QUERY;
+        long start = System.nanoTime();
+        try {
+            SearchSourceBuilder source = type == QueryRequest.Type.MLT ? mltSource(query, parameters) : fullTextSource(query, parameters);
+            long took = lean || router != null ? leanSearch(source, replies) : search(source, replies);
+            metrics.record(operation, start);
+            metrics.recordTook(operation, took);
+            if (cache != null) cache.put(key, replies);
+            return true;
+        }
+        catch (IOException e) {
+            metrics.recordError(operation);
+            e.printStackTrace();
+            replies.clear();
+            return false;
+        }
+    }
+
+    /* Returns the cache key of a query. It includes all the parameters that affect the replies. */
+    private String cacheKey(QueryRequest query, QueryParameters queryParameters) {
+        String parameters = query.type == QueryRequest.Type.MLT ? "k=" + k + "," + queryParameters.mltKey() : "k=" + k;
+        if (query.type == QueryRequest.Type.FULL_TEXT && !query.isByDocument()) {
+            parameters += reducer != null ? ",queryTerms=" + reducer.getMaxTerms() : queryParameters.matchKey();
+        }
+        if (query.isByDocument()) return QueryCache.key(indexName, query.type, parameters + ",byDocument", String.valueOf(query.rcn));
+        return QueryCache.key(indexName, query.type, parameters, query.text);
+    }
+
+    /* Creates the search source of a query. Returns null if the term vectors of a query document are missing. */
+    private SearchSourceBuilder source(QueryRequest query, Map<String, LinkedHashMap<String, int[]>> termVectors) throws IOException {
+        if (!query.isByDocument()) {
+            return query.type == QueryRequest.Type.MLT
+                    ? mltSource(query.text, QueryParameters.DEFAULT) : fullTextSource(query.text, QueryParameters.DEFAULT);
+        }
+        if (query.type == QueryRequest.Type.MLT) {
+            return mltDocumentSource(query.rcn);
+        }
+        LinkedHashMap<String, int[]> terms = termVectors.get(String.valueOf(query.rcn));
+        return terms == null || terms.isEmpty() ? null : termsSource(query.rcn, terms);
+    }
+
+    /* Creates the search source of a full text query by an indexed document. Each term is boosted by its frequency
+       in the document, which scores like a match query on the text of the document. */
+    private SearchSourceBuilder termsSource(int rcn, Map<String, int[]> terms) {
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
+        for (Map.Entry<String, int[]> term : terms.entrySet()) {
+            boolQueryBuilder.should(QueryBuilders.termQuery("text", term.getKey()).boost(term.getValue()[0]));
+        }
+        boolQueryBuilder.mustNot(QueryBuilders.idsQuery("_doc").addIds(String.valueOf(rcn)));
 
-        MoreLikeThisQueryBuilder mltBuilder = QueryBuilders.moreLikeThisQuery(fields, likeText, null)
-                .maxQueryTerms(100)
-                .minTermFreq(1)
-                .minDocFreq(1)
-                .minimumShouldMatch("10%");
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        sourceBuilder.size(k);
+        sourceBuilder.sort(new ScoreSortBuilder().order(SortOrder.DESC));
+        sourceBuilder.query(boolQueryBuilder);
+        if (lean) sourceBuilder.fetchSource(false);
+        return sourceBuilder;
+    }
+
+    /* Creates the search source of an MLT query by an indexed document. The document itself is not included. */
+    private SearchSourceBuilder mltDocumentSource(int rcn) {
+        MoreLikeThisQueryBuilder.Item[] likeItems = {new MoreLikeThisQueryBuilder.Item(indexName, "_doc", String.valueOf(rcn))};
+        MoreLikeThisQueryBuilder mltBuilder = QueryParameters.DEFAULT.mltQuery(null, likeItems).include(false);
 
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        sourceBuilder.size(k);
+        sourceBuilder.sort(new ScoreSortBuilder().order(SortOrder.DESC));
+        sourceBuilder.query(mltBuilder);
+        if (lean) sourceBuilder.fetchSource(false);
+        return sourceBuilder;
+    }
+
+    /* Creates the search source of a full text query. If query reduction is enabled only the top terms are sent and
+       the parameters are ignored. */
+    private SearchSourceBuilder fullTextSource(String query, QueryParameters parameters) throws IOException {
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        sourceBuilder.size(k+1);
+        sourceBuilder.sort(new ScoreSortBuilder().order(SortOrder.DESC));
+        Map<String, Float> terms = reducer != null ? reducer.reduce(query) : null;
+        //a bool query without clauses matches all documents, so a query without indexed terms stays a match query
+        if (terms != null && !terms.isEmpty()) {
+            BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
+            for (Map.Entry<String, Float> term : terms.entrySet()) {
+                boolQueryBuilder.should(QueryBuilders.termQuery("text", term.getKey()).boost(term.getValue()));
+            }
+            sourceBuilder.query(boolQueryBuilder);
+        }
+        else sourceBuilder.query(parameters.matchQuery(query));
+        if (lean) sourceBuilder.fetchSource(false);
+        return sourceBuilder;
+    }
+
+    /* Creates the search source of an MLT query. */
+    private SearchSourceBuilder mltSource(String query, QueryParameters parameters) {
+        String[] likeText = {query};
+        MoreLikeThisQueryBuilder mltBuilder = parameters.mltQuery(likeText, null);
 
         SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
         sourceBuilder.size(k+1);
         sourceBuilder.sort(new ScoreSortBuilder().order(SortOrder.DESC));
         sourceBuilder.query(mltBuilder);
+        if (lean) sourceBuilder.fetchSource(false);
+        return sourceBuilder;
+    }
 
+    /* Runs a search with the high level client. Returns the 'took' time of the search in milliseconds. */
+    private long search(SearchSourceBuilder sourceBuilder, QueryResults replies) throws IOException {
+        replies.clear();
         SearchRequest searchRequest = new SearchRequest(indexName);
         searchRequest.source(sourceBuilder);
-        try {
-            SearchResponse searchResponse = client.search(searchRequest);
-            SearchHits hits = searchResponse.getHits();
-            SearchHit[] searchHits = hits.getHits();
-
-            //i=1 because the 1st hit is the query text itself so we ignore it
-            for (int i=1; i<searchHits.length; i++) {
-                float[] doc = {Integer.parseInt(searchHits[i].getId()), searchHits[i].getScore()};
-                replies.add(doc);
-            }
+        SearchResponse searchResponse = client.search(searchRequest);
+        SearchHits hits = searchResponse.getHits();
+        SearchHit[] searchHits = hits.getHits();
+
+        //i=1 because the 1st hit is the query text itself so we ignore it
+        for (int i=1; i<searchHits.length; i++) {
+            replies.add(Integer.parseInt(searchHits[i].getId()), searchHits[i].getScore());
         }
-        catch (IOException e) {
-            e.printStackTrace();
+        return searchResponse.getTook().millis();
+    }
+
+    /* Runs a search with the low level client. Only the ids and scores of the hits are returned and parsed.
+       Returns the 'took' time of the search in milliseconds or -1 if it is missing. */
+    private long leanSearch(SearchSourceBuilder sourceBuilder, QueryResults replies) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        params.put("filter_path", "took,hits.hits._id,hits.hits._score");
+        Response response = performSearch("/" + indexName + "/_search", params,
+                new StringEntity(toJson(sourceBuilder), ContentType.APPLICATION_JSON), true);
+
+        //skip=1 because the 1st hit is the query text itself so we ignore it
+        try (InputStream in = response.getEntity().getContent()) {
+            return HitsParser.parseSearch(in, replies, 1);
         }
-        return replies;
+    }
+
+    /* Sends a read only POST request, through the router if routing is enabled. Only single searches are hedged,
+       since the hedge delay is a percentile of their latencies. */
+    private Response performSearch(String endpoint, Map<String, String> params, HttpEntity entity, boolean hedge) throws IOException {
+        if (router != null) return router.performRequest("POST", endpoint, params, entity, hedge);
+        return client.getLowLevelClient().performRequest("POST", endpoint, params, entity);
+    }
+
+    /* Serializes a search source to a single line of json. */
+    private static String toJson(SearchSourceBuilder source) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        source.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        return builder.bytes().utf8ToString();
     }
 }
 
@@ -0,0 +1,290 @@
+// Tsogkas Evangelos 3150185
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and throughput metrics of the operations of the {@link Client}.
+ *
+ * Latencies are recorded in microseconds to HdrHistogram recorders, which are wait free, and counters are
+ * LongAdders, so recording costs a few nanoseconds and never blocks the thread of a query. For searches the 'took'
+ * of the cluster is recorded too; the difference to the client latency is the network and parsing overhead.
+ * The bytes sent and received are counted by interceptors of the http client.
+ *
+ * The recorded values are moved to cumulative histograms when they are read, so readers synchronize only with
+ * each other.
+ */
+public class ClientMetrics {
+
+    /**
+     * The operations that are timed.
+     */
+    public enum Operation {
+        CREATE_INDEX, DELETE_INDEX, INSERT_DATA, BULK_REQUEST, FULL_TEXT_QUERY, MLT_QUERY, MULTI_SEARCH, SEARCH_PAGE
+    }
+
+    private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final int OPERATIONS = Operation.values().length;
+
+    private final Recorder[] latencyRecorders = new Recorder[OPERATIONS];
+    private final Recorder[] tookRecorders = new Recorder[OPERATIONS];
+    private final Histogram[] latencies = new Histogram[OPERATIONS];
+    private final Histogram[] tooks = new Histogram[OPERATIONS];
+    //histograms recycled by the recorders, one per recorder since a recorder only accepts its own histograms
+    private final Histogram[] latencyIntervals = new Histogram[OPERATIONS];
+    private final Histogram[] tookIntervals = new Histogram[OPERATIONS];
+    private final LongAdder[] errors = new LongAdder[OPERATIONS];
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bulkItemFailures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final long startMillis = System.currentTimeMillis();
+
+    private ScheduledExecutorService exporter;
+
+    /**
+     * Constructor.
+     */
+    public ClientMetrics() {
+        for (int i = 0; i < OPERATIONS; i++) {
+            latencyRecorders[i] = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+            tookRecorders[i] = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+            latencies[i] = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+            tooks[i] = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+            errors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds the interceptors that count the bytes sent and received to an http client.
+     * @param builder The builder of the http client of the rest client
+     * @return The builder
+     */
+    public HttpAsyncClientBuilder instrument(HttpAsyncClientBuilder builder) {
+        return builder
+                .addInterceptorLast((org.apache.http.HttpRequest request, org.apache.http.protocol.HttpContext context) -> {
+                    if (request instanceof HttpEntityEnclosingRequest) {
+                        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                        if (entity != null && entity.getContentLength() > 0) bytesSent.add(entity.getContentLength());
+                    }
+                })
+                .addInterceptorLast((org.apache.http.HttpResponse response, org.apache.http.protocol.HttpContext context) -> {
+                    HttpEntity entity = response.getEntity();
+                    if (entity != null && entity.getContentLength() > 0) bytesReceived.add(entity.getContentLength());
+                });
+    }
+
+    /**
+     * Records the latency of an operation that started at 'startNanos'.
+     * @param operation The operation
+     * @param startNanos The value of System.nanoTime() when the operation started
+     */
+    public void record(Operation operation, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        latencyRecorders[operation.ordinal()].recordValue(Math.min(Math.max(micros, 0), HIGHEST_MICROS));
+    }
+
+    /**
+     * Records the time the cluster reported for a search.
+     * @param operation The operation
+     * @param tookMillis The 'took' of the response in milliseconds
+     */
+    public void recordTook(Operation operation, long tookMillis) {
+        if (tookMillis < 0) return;
+        tookRecorders[operation.ordinal()].recordValue(Math.min(tookMillis * 1000, HIGHEST_MICROS));
+    }
+
+    /**
+     * Counts a failed operation.
+     * @param operation The operation
+     */
+    public void recordError(Operation operation) {
+        errors[operation.ordinal()].increment();
+    }
+
+    /**
+     * @param items The number of bulk items that failed
+     */
+    public void addBulkItemFailures(long items) {
+        bulkItemFailures.add(items);
+    }
+
+    /**
+     * @param items The number of bulk items or requests that were retried
+     */
+    public void addRetries(long items) {
+        retries.add(items);
+    }
+
+    /**
+     * Returns the latencies of an operation since the metrics were created.
+     * @param operation The operation
+     * @return A copy of the histogram of the latencies in microseconds
+     */
+    public synchronized Histogram latency(Operation operation) {
+        return collect(operation).latency.copy();
+    }
+
+    /**
+     * Returns the times the cluster reported for the searches of an operation since the metrics were created.
+     * @param operation The operation
+     * @return A copy of the histogram of the 'took' times in microseconds
+     */
+    public synchronized Histogram took(Operation operation) {
+        return collect(operation).took.copy();
+    }
+
+    /**
+     * @param operation The operation
+     * @return The number of failed operations
+     */
+    public long errors(Operation operation) {
+        return errors[operation.ordinal()].sum();
+    }
+
+    /**
+     * @return The number of bytes of the request bodies sent
+     */
+    public long bytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * @return The number of bytes of the response bodies received
+     */
+    public long bytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * @return The number of bulk items that failed
+     */
+    public long bulkItemFailures() {
+        return bulkItemFailures.sum();
+    }
+
+    /**
+     * @return The number of bulk items or requests that were retried
+     */
+    public long retries() {
+        return retries.sum();
+    }
+
+    /**
+     * Returns a snapshot of all metrics as a single line json object. For each operation that was recorded there
+     * are the count, the errors and the mean, p50, p90, p99, p99.9 and max of the latency and of the 'took', in ms.
+     * @return The json object
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"uptime_ms\":").append(System.currentTimeMillis() - startMillis)
+                .append(",\"bytes_sent\":").append(bytesSent())
+                .append(",\"bytes_received\":").append(bytesReceived())
+                .append(",\"bulk_item_failures\":").append(bulkItemFailures())
+                .append(",\"retries\":").append(retries())
+                .append(",\"operations\":{");
+        boolean first = true;
+        for (Operation operation : Operation.values()) {
+            Totals totals = collect(operation);
+            if (totals.latency.getTotalCount() == 0 && errors(operation) == 0) continue;
+            if (!first) json.append(',');
+            first = false;
+            json.append('"').append(operation.name().toLowerCase()).append("\":{\"count\":").append(totals.latency.getTotalCount())
+                    .append(",\"errors\":").append(errors(operation))
+                    .append(",\"latency\":");
+            appendPercentiles(json, totals.latency);
+            if (totals.took.getTotalCount() > 0) {
+                json.append(",\"took\":");
+                appendPercentiles(json, totals.took);
+            }
+            json.append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Appends a snapshot of the metrics to a file periodically, one json object per line.
+     * @param file The file
+     * @param periodMillis The time between two snapshots
+     */
+    public synchronized void startExport(final File file, long periodMillis) {
+        stopExport();
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleAtFixedRate(() -> export(file), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic export.
+     */
+    public synchronized void stopExport() {
+        if (exporter != null) {
+            exporter.shutdown();
+            exporter = null;
+        }
+    }
+
+    /**
+     * Appends a snapshot of the metrics to a file.
+     * @param file The file
+     */
+    public void export(File file) {
+        String json = toJson();
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file, true))) {
+            pw.println(json);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* The cumulative histograms of an operation. */
+    private static class Totals {
+        Histogram latency, took;
+    }
+
+    /* Moves the values recorded since the last read to the cumulative histograms of an operation. */
+    private Totals collect(Operation operation) {
+        int i = operation.ordinal();
+        latencyIntervals[i] = latencyRecorders[i].getIntervalHistogram(latencyIntervals[i]);
+        latencies[i].add(latencyIntervals[i]);
+        tookIntervals[i] = tookRecorders[i].getIntervalHistogram(tookIntervals[i]);
+        tooks[i].add(tookIntervals[i]);
+        Totals totals = new Totals();
+        totals.latency = latencies[i];
+        totals.took = tooks[i];
+        return totals;
+    }
+
+    /* Appends the summary of a histogram of microseconds, in milliseconds. */
+    private static void appendPercentiles(StringBuilder json, Histogram histogram) {
+        json.append("{\"mean\":").append(millis(histogram.getMean()))
+                .append(",\"p50\":").append(millis(histogram.getValueAtPercentile(50)))
+                .append(",\"p90\":").append(millis(histogram.getValueAtPercentile(90)))
+                .append(",\"p99\":").append(millis(histogram.getValueAtPercentile(99)))
+                .append(",\"p99.9\":").append(millis(histogram.getValueAtPercentile(99.9)))
+                .append(",\"max\":").append(millis(histogram.getMaxValue())).append('}');
+    }
+
+    /* Formats microseconds as milliseconds with 3 decimals. */
+    private static String millis(double micros) {
+        return String.format(java.util.Locale.ROOT, "%.3f", micros / 1000);
+    }
+}
@@ -0,0 +1,90 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Converts the xml collection to the files of {@link CreateFilesMain} using a pool of worker threads.
+ *
+ * Each worker parses whole files with its own {@link ProjectParser} and {@link ProjectXMLWriter}. The json records
+ * are written by the calling thread through a single buffered writer, in the order of the file names, so the output
+ * does not depend on the number of threads.
+ */
+public class CollectionConverter {
+
+    private final int threads;
+    private final ThreadLocal<ProjectParser> parsers = ThreadLocal.withInitial(ProjectParser::new);
+    private final ThreadLocal<ProjectXMLWriter> xmlWriters = ThreadLocal.withInitial(() -> {
+        try {
+            return new ProjectXMLWriter();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * Constructor.
+     * @param threads The number of worker threads
+     */
+    public CollectionConverter(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Converts the xml files. Writes the xml files with the "text" element to 'xmlDirectory' and the json records to
+     * 'jsonFile'.
+     * @param files The xml files of the collection
+     * @param xmlDirectory The directory of the new xml collection
+     * @param jsonFile The json file for elastic search
+     */
+    public void convert(File[] files, final File xmlDirectory, File jsonFile) throws IOException, InterruptedException, ExecutionException {
+        File[] sorted = files.clone();
+        Arrays.sort(sorted);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        //at most a few files per thread are parsed ahead of the writer
+        int window = threads * 4;
+        ArrayDeque<Future<ArrayList<ProjectRecord>>> pending = new ArrayDeque<>(window);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(jsonFile), "UTF-8"), 1 << 16)) {
+            int next = 0, count = 0;
+            while (count < sorted.length) {
+                while (next < sorted.length && pending.size() < window) {
+                    final File file = sorted[next++];
+                    pending.add(executor.submit(() -> convert(file, xmlDirectory)));
+                }
+                for (ProjectRecord project : pending.poll().get()) {
+                    writer.write(project.toBulkLines());
+                }
+                //shows progress to console
+                count++;
+                String progress = "\rCompleted: " + count + "/" + sorted.length;
+                System.out.write(progress.getBytes());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /* Parses a file and writes its xml file with the "text" element. */
+    private ArrayList<ProjectRecord> convert(File file, File xmlDirectory) throws Exception {
+        ArrayList<ProjectRecord> projects = parsers.get().parse(file);
+        ProjectXMLWriter xmlWriter = xmlWriters.get();
+        for (ProjectRecord project : projects) {
+            xmlWriter.write(project, new File(xmlDirectory, file.getName()));
+        }
+        return projects;
+    }
+}
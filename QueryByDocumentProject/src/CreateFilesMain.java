@@ -17,6 +17,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.*;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 
 /**
  * This class has its own main that needs to be ran once to create the files.
@@ -25,6 +26,7 @@ import java.util.Scanner;
  * 1. XML collection with "text" element (Path: output/new_xml_collection)
  * 2. JSON file for elastic search (Path: output/texts.json)
  *
+ * The parallel mode uses {@link CollectionConverter}.
  */
 public class CreateFilesMain {
 
@@ -44,10 +46,25 @@ public class CreateFilesMain {
             String input = scanner.nextLine();
             System.out.println("");
 
+            System.out.println("Choose conversion mode: ('1' or '2')");
+            System.out.println("1. Sequential (DOM)");
+            System.out.println("2. Parallel (StAX)");
+            String mode = scanner.nextLine();
+            System.out.println("");
+
             File dir = new File(input);
             File[] files = dir.listFiles();
             int count = 0;
-            if (files!=null) {
+            if (files!=null && mode.equals("2")) {
+                try {
+                    new CollectionConverter(Runtime.getRuntime().availableProcessors())
+                            .convert(files, directory, new File("output/texts.json"));
+                }
+                catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+            else if (files!=null) {
                 int numFiles = files.length;
                 for (final File file : files) {
                     DocumentBuilder builder = DocumentBuilderFactory
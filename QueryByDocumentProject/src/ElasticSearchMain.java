@@ -2,6 +2,7 @@
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -9,136 +10,281 @@ import java.util.Scanner;
  */
 public class ElasticSearchMain {
 
+    private static final int BATCH_SIZE = 50; //number of queries of a multi search request
+    private static final int PAGE_SIZE = 500; //number of documents of a page of a deep query
+    private static final int MAX_SEGMENTS = 1; //number of segments per shard after a bulk load
+    private static final int CACHE_SIZE = 10000; //number of cached queries
+    private static final long CACHE_TTL_MILLIS = 7 * 24 * 60 * 60 * 1000L; //time to live of a cached query
+    private static final long METRICS_PERIOD_MILLIS = 60 * 1000L; //time between two snapshots of the client metrics
+    private static final long SNIFF_INTERVAL_MILLIS = 5 * 60 * 1000L; //time between two discoveries of the nodes
+    private static final String QRELS_FILE = "input/qrels.txt"; //relevance judgments, the replies are evaluated if it exists
+    private static final String RUN_TAG = "fullTextQuery"; //last column of the run files
+    private static final int[] QUERY_RCNS = {193378, 213164, 204146, 214253, 212490,
+        210133, 213097, 193715, 197346, 199879}; //rcns of the query documents
+
     public static void main (String args[]) {
         File jsonFile = new File("output/texts.json");
-        if (jsonFile.exists()) {
-            Scanner scanner = new Scanner(System.in);
-            System.out.print("Insert index name: ");
-            String indexName = scanner.nextLine();
-            Client client = new Client(indexName);
-            boolean exists = client.indexExists();
-
-            while (true) {
-                System.out.println("Choose number: (Input '1' or '2' etc...)");
-                System.out.println("1. Create index");
-                System.out.println("2. Insert data");
-                System.out.println("3. Query (phase 1)");
-                System.out.println("4. Query (phase 2)");
-                System.out.println("5. Delete index");
-                System.out.println("6. Exit");
-                String option = scanner.nextLine();
-
-                if (option.equals("1")) {
-                    if (!exists) client.createIndex();
-                    else System.out.println("Index already exists...");
+        Scanner scanner = new Scanner(System.in);
+        System.out.print("Insert index name: ");
+        String indexName = scanner.nextLine();
+        System.out.println("Choose backend: ('1' or '2')");
+        System.out.println("1. Elastic search cluster");
+        System.out.println("2. Embedded index (no cluster)");
+        boolean embedded = scanner.nextLine().equals("2");
+
+        //the options that only the cluster supports use the client, which is null for the embedded index
+        Client client = embedded ? null : createClient(scanner, indexName);
+        //duplicate queries are sent once, see QueryCoalescer
+        QueryCoalescer backend = new QueryCoalescer(embedded ? new EmbeddedIndex(indexName, Runtime.getRuntime().availableProcessors()) : client);
+        if (client != null) {
+            client.setLeanResponses(true);
+            client.enableCache(CACHE_SIZE, CACHE_TTL_MILLIS, new File("cache/" + indexName + ".cache"));
+            System.out.print("Export client metrics to 'metrics/" + indexName + ".json'? (y/n): ");
+            if (scanner.nextLine().equalsIgnoreCase("y")) {
+                client.getMetrics().startExport(new File("metrics/" + indexName + ".json"), METRICS_PERIOD_MILLIS);
+            }
+        }
+        Evaluator evaluator = loadEvaluator();
+        boolean exists = backend.indexExists();
+
+        while (true) {
+            System.out.println("Choose number: (Input '1' or '2' etc...)");
+            System.out.println("1. Create index");
+            System.out.println("2. Insert data");
+            System.out.println("3. Query (phase 1)");
+            System.out.println("4. Query (phase 2)");
+            System.out.println("5. Delete index");
+            System.out.println("6. Sync with the xml collection (incremental)");
+            System.out.println("7. Exit");
+            String option = scanner.nextLine();
+
+            if (option.equals("1")) {
+                if (!exists && client == null) backend.createIndex();
+                else if (!exists) {
+                    System.out.print("Insert the number of shards (default 5): ");
+                    String shards = scanner.nextLine().trim();
+                    System.out.print("Insert the language of the stemmer, e.g. english (empty for no stemmer): ");
+                    String stemmer = scanner.nextLine().trim();
+                    IndexSettings settings = new IndexSettings();
+                    if (!shards.isEmpty()) settings.shards(Integer.parseInt(shards));
+                    if (!stemmer.isEmpty()) settings.stemmer(stemmer);
+                    client.createIndex(settings);
                 }
-                else if (option.equals("2")) {
-                    if (exists) client.insertData();
-                    else System.out.println("Index does not exist...");
+                else System.out.println("Index already exists...");
+            }
+            else if (option.equals("2")) {
+                if (exists && client == null) {
+                    if (jsonFile.exists()) backend.insertData();
+                    else System.out.println("File 'output/texts.json' not found. Please run CreateFilesMain to create it");
                 }
-                else if (option.equals("3")) {
-                    if (exists) {
-                        System.out.println("Querying index...");
-                        ArrayList<String> queries = readQueries();
-                        String replies_file = "output/system_qrels.txt";
-                        for (int i = 0; i < queries.size(); i++) {
-                            ArrayList<float[]> replies = client.fullTextQuery(queries.get(i));
-                            writeReplies(replies, i + 1, replies_file);
+                else if (exists) {
+                    System.out.println("Choose insert mode: ('1', '2', '3', '4' or '5')");
+                    System.out.println("1. Single bulk request");
+                    System.out.println("2. Streaming bulk requests");
+                    System.out.println("3. Raw NDJSON bulk requests");
+                    System.out.println("4. Raw NDJSON bulk requests (gzip)");
+                    System.out.println("5. Directly from the xml collection");
+                    String insert_mode = scanner.nextLine();
+
+                    System.out.print("Use the bulk load settings? (y/n): ");
+                    boolean bulkProfile = scanner.nextLine().equalsIgnoreCase("y");
+
+                    Runnable load = null;
+                    if (insert_mode.equals("5")) {
+                        System.out.print("Insert the path of the directory with the xml collection: ");
+                        File[] files = new File(scanner.nextLine()).listFiles();
+                        System.out.print("Write the files of CreateFilesMain too? (y/n): ");
+                        boolean sideOutput = scanner.nextLine().equalsIgnoreCase("y");
+                        if (files != null) {
+                            load = () -> client.insertCollection(files, Runtime.getRuntime().availableProcessors(), sideOutput);
                         }
-                        System.out.println("Saved replies to file '" + replies_file +"'...");
+                        else System.out.println("Directory does not exist...");
+                    }
+                    else if (!jsonFile.exists()) {
+                        System.out.println("File 'output/texts.json' not found. Please run CreateFilesMain to create it");
+                    }
+                    else if (insert_mode.equals("2")) {
+                        load = () -> client.insertData(BulkIngester.DEFAULT_MAX_DOCS, BulkIngester.DEFAULT_MAX_BYTES,
+                                BulkIngester.DEFAULT_CONCURRENT_REQUESTS);
+                    }
+                    else if (insert_mode.equals("3") || insert_mode.equals("4")) {
+                        boolean gzip = insert_mode.equals("4");
+                        load = () -> client.insertRawData(BulkIngester.DEFAULT_MAX_BYTES, BulkIngester.DEFAULT_CONCURRENT_REQUESTS, gzip);
+                    }
+                    else load = client::insertData;
+
+                    if (load != null) {
+                        if (bulkProfile) client.bulkLoad(load, MAX_SEGMENTS);
+                        else load.run();
                     }
-                    else System.out.println("Index does not exist...");
                 }
-                else if (option.equals("4")) {
-                    if (exists) {
+                else System.out.println("Index does not exist...");
+            }
+            else if (option.equals("3")) {
+                if (exists) {
+                    String depth = "";
+                    if (client != null) {
+                        System.out.print("Insert the number of documents to retrieve per query (default 20): ");
+                        depth = scanner.nextLine().trim();
+                    }
+                    System.out.println("Querying index...");
+                    ArrayList<String> queries = readQueries();
+                    String replies_file = "output/system_qrels.txt";
+                    if (!depth.isEmpty() && Integer.parseInt(depth) > 20) {
+                        saveDeepReplies(client, queries, Integer.parseInt(depth), replies_file, evaluator);
+                    }
+                    else {
+                        ArrayList<QueryResults> replies = backend.batchQuery(
+                                QueryRequest.of(QueryRequest.Type.FULL_TEXT, queries), BATCH_SIZE);
+                        saveReplies(replies, replies_file, evaluator);
+                    }
+                }
+                else System.out.println("Index does not exist...");
+            }
+            else if (option.equals("4")) {
+                if (exists) {
+                    scanner = new Scanner(System.in);
+                    System.out.println("Choose query type: ('1', '2', '3' or '4')");
+                    System.out.println("1. Full text query (percentage of extracted phrases)");
+                    System.out.println("2. MLT query");
+                    System.out.println("3. MLT query by indexed document");
+                    System.out.println("4. Full text query by indexed document (term vectors)");
+                    String query_type = scanner.nextLine();
+
+                    if (query_type.equals("1")) {
+                        System.out.print("Insert the path of the directory with the extracted phrases files: ");
                         scanner = new Scanner(System.in);
-                        System.out.println("Choose query type: ('1' or '2')");
-                        System.out.println("1. Full text query (percentage of extracted phrases)");
-                        System.out.println("2. MLT query");
-                        String query_type = scanner.nextLine();
-
-                        if (query_type.equals("1")) {
-                            System.out.print("Insert the path of the directory with the extracted phrases files: ");
-                            scanner = new Scanner(System.in);
-                            String dir = scanner.nextLine();
-                            if (new File(dir).exists()) {
-                                for (float pct = 0.3f; pct <= 1f; pct += 0.3f) {
-                                    ArrayList<String> queries = queriesFromExtractedPhrases(dir, pct);
-
-                                    String replies_file = "output/system_qrels" + (int) (pct * 100) + "%.txt";
-                                    for (int q = 0; q < queries.size(); q++) {
-                                        ArrayList<float[]> replies = client.fullTextQuery(queries.get(q));
-                                        writeReplies(replies, q + 1, replies_file);
-                                    }
-                                    System.out.println("Saved replies to file '" + replies_file + "'...");
-                                }
-                            } else System.out.println("Directory does not exist...");
+                        String dir = scanner.nextLine();
+                        String terms = "";
+                        if (client != null) {
+                            System.out.print("Insert the number of query terms to keep (empty for the whole query): ");
+                            terms = scanner.nextLine().trim();
                         }
-                        else {
-                            ArrayList<String> queries = readQueries();
-                            String replies_file = "output/system_qrelsMLT.txt";
-                            for (int i = 0; i < queries.size(); i++) {
-                                ArrayList<float[]> replies = client.MLTQuery(queries.get(i));
-                                writeReplies(replies, i + 1, replies_file);
+                        if (new File(dir).exists()) {
+                            if (client != null) client.setQueryReduction(terms.isEmpty() ? 0 : Integer.parseInt(terms));
+                            ArrayList<ArrayList<String>> phrases = loadPhrases(dir);
+                            for (float pct = 0.3f; pct <= 1f; pct += 0.3f) {
+                                ArrayList<String> queries = queriesFromPhrases(phrases, pct);
+
+                                String replies_file = "output/system_qrels" + (int) (pct * 100) + "%.txt";
+                                ArrayList<QueryResults> replies = backend.batchQuery(
+                                        QueryRequest.of(QueryRequest.Type.FULL_TEXT, queries), BATCH_SIZE);
+                                saveReplies(replies, replies_file, evaluator);
                             }
-                            System.out.println("Saved replies to file '" + replies_file +"'...");
-                        }
+                            if (client != null) client.setQueryReduction(0);
+                        } else System.out.println("Directory does not exist...");
+                    }
+                    else if (query_type.equals("3") || query_type.equals("4")) {
+                        QueryRequest.Type type = query_type.equals("3") ? QueryRequest.Type.MLT : QueryRequest.Type.FULL_TEXT;
+                        String replies_file = "output/system_qrels" + (type == QueryRequest.Type.MLT ? "MLT" : "") + "ByDocument.txt";
+                        ArrayList<QueryResults> replies = backend.batchQuery(QueryRequest.ofDocuments(type, QUERY_RCNS), BATCH_SIZE);
+                        saveReplies(replies, replies_file, evaluator);
+                    }
+                    else {
+                        ArrayList<String> queries = readQueries();
+                        String replies_file = "output/system_qrelsMLT.txt";
+                        ArrayList<QueryResults> replies = backend.batchQuery(
+                                QueryRequest.of(QueryRequest.Type.MLT, queries), BATCH_SIZE);
+                        saveReplies(replies, replies_file, evaluator);
                     }
-                    else System.out.println("Index does not exist...");
-                }
-                else if (option.equals("5")) {
-                    if (exists) client.deleteIndex();
-                    else System.out.println("Index does not exist...");
                 }
-                else {
-                    client.close();
-                    break;
+                else System.out.println("Index does not exist...");
+            }
+            else if (option.equals("5")) {
+                if (exists) backend.deleteIndex();
+                else System.out.println("Index does not exist...");
+            }
+            else if (option.equals("6")) {
+                if (client == null) System.out.println("Not supported by the embedded index...");
+                else if (exists) {
+                    System.out.print("Insert the path of the directory with the xml collection: ");
+                    File[] files = new File(scanner.nextLine()).listFiles();
+                    if (files != null) client.syncCollection(files);
+                    else System.out.println("Directory does not exist...");
                 }
-                exists = client.indexExists();
+                else System.out.println("Index does not exist...");
+            }
+            else {
+                if (client != null) System.out.println("Client metrics: " + client.getMetrics().toJson());
+                System.out.println("Coalesced queries: " + backend.report());
+                backend.close();
+                break;
             }
+            exists = backend.indexExists();
         }
-        else
-            System.out.println("File 'output/texts.json' not found. Please run CreateFilesMain to create it");
+    }
+
+    /* Asks for the nodes and the routing of the searches to them and creates the client. */
+    private static Client createClient(Scanner scanner, String indexName) {
+        System.out.print("Insert the nodes as host:port separated by commas (empty for localhost:9200,localhost:9201): ");
+        String nodes = scanner.nextLine().trim();
+        Client client = nodes.isEmpty() ? new Client(indexName) : new Client(indexName, NodeRouter.parseHosts(nodes));
+
+        System.out.println("Choose search routing: ('1', '2' or '3')");
+        System.out.println("1. Round robin (default)");
+        System.out.println("2. Least outstanding requests");
+        System.out.println("3. Latency weighted");
+        String choice = scanner.nextLine().trim();
+        if (!choice.equals("2") && !choice.equals("3")) return client;
+        NodeRouter router = client.enableRouting(choice.equals("2") ? NodeRouter.Policy.LEAST_OUTSTANDING : NodeRouter.Policy.LATENCY_WEIGHTED);
+        System.out.print("Discover the nodes of the cluster? (y/n): ");
+        if (scanner.nextLine().equalsIgnoreCase("y")) router.startSniffing(SNIFF_INTERVAL_MILLIS);
+        System.out.print("Insert the latency percentile after which searches are hedged, e.g. 95 (empty for no hedging): ");
+        String percentile = scanner.nextLine().trim();
+        if (!percentile.isEmpty()) router.setHedging(Double.parseDouble(percentile));
+        return client;
     }
 
     /* Creates the queries from the files with the extracted phrases according to the given percentage of phrases. */
-    private static ArrayList<String> queriesFromExtractedPhrases(String directory, float percentage) {
-        String[] files = {"193378.txt", "213164.txt", "204146.txt", "214253.txt", "212490.txt",
-            "210133.txt", "213097.txt", "193715.txt", "197346.txt", "199879.txt"};
-        ArrayList<String> queries = new ArrayList<>(10);
+    static ArrayList<String> queriesFromExtractedPhrases(String directory, float percentage) {
+        return queriesFromPhrases(loadPhrases(directory), percentage);
+    }
 
-        for (String file : files) {
+    /* Reads the extracted phrases of the query documents, a list per document whose file could be read. */
+    static ArrayList<ArrayList<String>> loadPhrases(String directory) {
+        ArrayList<ArrayList<String>> documents = new ArrayList<>(QUERY_RCNS.length);
+
+        for (int rcn : QUERY_RCNS) {
+            String file = rcn + ".txt";
             ArrayList<String> phrases = new ArrayList<>();
             String readLine;
-            try {
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new DataInputStream(new FileInputStream(directory+"/"+file))));
+            try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new DataInputStream(new FileInputStream(directory+"/"+file))))) {
                 while((readLine = bufferedReader.readLine()) != null) {
                     phrases.add(readLine);
                 }
-                //create query
-                StringBuilder query = new StringBuilder();
-                for (int i=0; i<phrases.size()*percentage; i++) {
-                    query.append(phrases.get(i));
-                    query.append(" ");
-                }
-                queries.add(query.toString());
+                documents.add(phrases);
             }
             catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        return documents;
+    }
+
+    /* Creates the queries from the phrases of the query documents according to the given percentage of phrases. */
+    static ArrayList<String> queriesFromPhrases(List<? extends List<String>> documents, float percentage) {
+        ArrayList<String> queries = new ArrayList<>(documents.size());
+        for (List<String> phrases : documents) {
+            //create query
+            StringBuilder query = new StringBuilder();
+            for (int i=0; i<phrases.size()*percentage; i++) {
+                query.append(phrases.get(i));
+                query.append(" ");
+            }
+            queries.add(query.toString());
+        }
         return queries;
     }
 
     /* Reads the file 'input/testingQueries.txt' with the queries. */
-    private static ArrayList<String> readQueries() {
+    static ArrayList<String> readQueries() {
         ArrayList<String> queries = new ArrayList<>(10);
         String readLine;
         try {
             BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new DataInputStream(new FileInputStream("input/testingQueries.txt"))));
 
             while((readLine = bufferedReader.readLine()) != null) {
-                queries.add(readLine.substring(4).replaceAll("[+-=&|><!(){}^\"~*?:\\[\\]\\\\/]", " "));
+                queries.add(QueryNormalizer.normalize(readLine, 4));
             }
         }
         catch (IOException e) {
@@ -147,17 +293,55 @@ public class ElasticSearchMain {
         return queries;
     }
 
-    /* Writes query replies. */
-    private static void writeReplies(ArrayList<float[]> replies, int queryId, String file) {
-        try(FileWriter fw = new FileWriter(file, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            PrintWriter pw = new PrintWriter(bw))
-        {
-            for (float[] doc : replies) {
-                pw.write("Q"+ String.format("%02d", queryId) + "\t0\t" + (int) doc[0] + "\t0\t" + doc[1] + "\tfullTextQuery\n");
+    /* Makes deep full text queries and streams their hits to a run file and to their evaluation, without keeping
+       them, then prints the evaluation if there are relevance judgments. */
+    private static void saveDeepReplies(Client client, List<String> queries, int depth, String file, Evaluator evaluator) {
+        Evaluator.Run run = evaluator != null ? evaluator.newRun() : null;
+        try (RunFileWriter writer = new RunFileWriter(new File(file), RUN_TAG, false)) {
+            for (int q = 0; q < queries.size(); q++) {
+                RunFileWriter.HitWriter hits = writer.begin(q + 1);
+                Evaluator.Run.Ranking ranking = run != null ? run.begin(q + 1) : null;
+                client.streamQuery(QueryRequest.Type.FULL_TEXT, queries.get(q), depth, PAGE_SIZE, (rank, doc, score) -> {
+                    hits.accept(rank, doc, score);
+                    if (ranking != null) ranking.accept(rank, doc, score);
+                });
+                hits.end();
+                if (ranking != null) ranking.end();
+            }
+            System.out.println("Saved replies to file '" + file + "'...");
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (run != null) System.out.print(run.report(false));
+    }
+
+    /* Appends the replies of the queries to a run file and prints their evaluation if there are relevance judgments. */
+    private static void saveReplies(List<QueryResults> replies, String file, Evaluator evaluator) {
+        Evaluator.Run run = evaluator != null ? evaluator.newRun() : null;
+        try (RunFileWriter writer = new RunFileWriter(new File(file), RUN_TAG, false)) {
+            for (int q = 0; q < replies.size(); q++) {
+                writer.write(q + 1, replies.get(q));
+                if (run != null) run.add(q + 1, replies.get(q));
             }
-        } catch (IOException e) {
+            System.out.println("Saved replies to file '" + file + "'...");
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (run != null) System.out.print(run.report(false));
+    }
+
+    /* Loads the relevance judgments. Returns null if there are none. */
+    static Evaluator loadEvaluator() {
+        File qrels = new File(QRELS_FILE);
+        if (!qrels.exists()) return null;
+        try {
+            return new Evaluator(qrels, Evaluator.DEFAULT_CUTOFFS);
+        }
+        catch (IOException | RuntimeException e) {
             e.printStackTrace();
+            return null;
         }
     }
 }
@@ -0,0 +1,437 @@
+// Tsogkas Evangelos 3150185
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An in process search engine with the operations of the {@link Client}, for running the project without an
+ * elastic search cluster.
+ *
+ * The index lives in the directory 'embedded/index name' as one {@link Segment} file per shard. Documents are
+ * distributed to the shards round robin and the shards are built and searched in parallel. The "text" field is
+ * analyzed like 'my_analyzer' of the cluster with the default {@link IndexSettings} (standard tokenizer, lower case
+ * and english stopwords, no stemmer) and scored with BM25 (k1 = 1.2, b = 0.75) using the statistics of
+ * the whole index. MLT queries select their terms like the MLT query of the {@link Client} does.
+ */
+public class EmbeddedIndex implements SearchBackend {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MLT_MAX_QUERY_TERMS = 100;
+    private static final int MLT_MINIMUM_SHOULD_MATCH_PERCENT = 10;
+
+    private final File directory;
+    private final int shards;
+    private final int k = 20; //number of documents to retrieve
+    private final ExecutorService executor;
+    private final Analyzer analyzer = new StandardAnalyzer(StandardAnalyzer.STOP_WORDS_SET);
+    private final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(Accumulator::new);
+
+    private Segment[] segments = new Segment[0];
+    private long docCount;
+    private float avgLength;
+
+    /* The scores of the documents of a segment during a query, reused by the thread that searches it. */
+    private static class Accumulator {
+        float[] scores = new float[0];
+        int[] matches = new int[0];
+        int[] touched = new int[0];
+        int touchedCount;
+
+        void ensure(int docs) {
+            if (scores.length < docs) {
+                scores = new float[docs];
+                matches = new int[docs];
+                touched = new int[docs];
+            }
+        }
+    }
+
+    /* A bounded min heap of the best (rcn, score) pairs. Ties are broken by rcn, the lower rcn ranks first. */
+    private static class TopHits {
+        final int[] rcns;
+        final float[] scores;
+        int size;
+
+        TopHits(int capacity) {
+            rcns = new int[capacity];
+            scores = new float[capacity];
+        }
+
+        void offer(int rcn, float score) {
+            if (rcns.length == 0) return;
+            if (size < rcns.length) {
+                rcns[size] = rcn;
+                scores[size] = score;
+                up(size++);
+            }
+            else if (worse(0, rcn, score)) {
+                rcns[0] = rcn;
+                scores[0] = score;
+                down(0);
+            }
+        }
+
+        /* True if the entry i ranks below the pair (rcn, score). */
+        boolean worse(int i, int rcn, float score) {
+            return scores[i] < score || (scores[i] == score && rcns[i] > rcn);
+        }
+
+        void up(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(i, rcns[parent], scores[parent])) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        void down(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && worse(child + 1, rcns[child], scores[child])) child++;
+                if (!worse(child, rcns[i], scores[i])) break;
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        void swap(int i, int j) {
+            int rcn = rcns[i];
+            float score = scores[i];
+            rcns[i] = rcns[j];
+            scores[i] = scores[j];
+            rcns[j] = rcn;
+            scores[j] = score;
+        }
+
+        /* Empties the heap into the results from the best to the worst hit, skipping the first 'skip' hits. */
+        void drainTo(QueryResults replies, int skip) {
+            int count = size;
+            int[] sortedRcns = new int[count];
+            float[] sortedScores = new float[count];
+            for (int i = count - 1; i >= 0; i--) {
+                sortedRcns[i] = rcns[0];
+                sortedScores[i] = scores[0];
+                swap(0, --size);
+                down(0);
+            }
+            replies.clear();
+            for (int i = skip; i < count; i++) {
+                replies.add(sortedRcns[i], sortedScores[i]);
+            }
+        }
+    }
+
+    /**
+     * Constructor. Opens the segments of the index, if it exists.
+     * @param indexName The name of the index
+     * @param shards The number of shards the data are inserted to, which is also the number of search threads
+     */
+    public EmbeddedIndex(String indexName, int shards) {
+        directory = new File("embedded/" + indexName);
+        this.shards = shards;
+        executor = Executors.newFixedThreadPool(shards);
+        open();
+    }
+
+    @Override
+    public boolean indexExists() {
+        return directory.isDirectory();
+    }
+
+    @Override
+    public void createIndex() {
+        if (directory.mkdirs()) System.out.println("Index created: " + directory.getPath());
+        else System.out.println("Could not create directory '" + directory.getPath() + "'");
+    }
+
+    /**
+     * Inserts the data to the index from the 'texts.json' file located in directory 'output'. The documents replace
+     * the documents of the index.
+     */
+    @Override
+    public void insertData() {
+        System.out.println("Inserting data...");
+        long start = System.nanoTime();
+        ArrayList<Integer> rcns = new ArrayList<>();
+        ArrayList<String> texts = new ArrayList<>();
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream("output/texts.json"), StandardCharsets.UTF_8))) {
+            JSONParser jsonParser = new JSONParser();
+            String readLine;
+            String id = "";
+            while ((readLine = bufferedReader.readLine()) != null) {
+                JSONObject jsonObject = (JSONObject) jsonParser.parse(readLine);
+                if (readLine.startsWith("{\"index")) {
+                    id = (String) ((JSONObject) jsonObject.get("index")).get("_id");
+                }
+                else {
+                    Object text = jsonObject.get("text");
+                    rcns.add(Integer.parseInt(id));
+                    texts.add(text == null ? "" : (String) text);
+                }
+            }
+
+            //each shard analyzes and writes its share of the documents in its own thread
+            List<Future<Integer>> futures = new ArrayList<>(shards);
+            for (int s = 0; s < shards; s++) {
+                final int shard = s;
+                futures.add(executor.submit(() -> {
+                    SegmentWriter writer = new SegmentWriter();
+                    for (int i = shard; i < rcns.size(); i += shards) {
+                        writer.add(rcns.get(i), analyze(texts.get(i)));
+                    }
+                    writer.write(segmentFile(shard));
+                    return writer.docCount();
+                }));
+            }
+            for (Future<Integer> future : futures) future.get();
+            //segments of a previous insert with more shards
+            for (int s = shards; segmentFile(s).exists(); s++) segmentFile(s).delete();
+        }
+        catch (IOException | ParseException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        open();
+        System.out.println("{\n\ttotal : " + docCount);
+        System.out.println("\tsegments : " + segments.length);
+        System.out.println("\tdocs/sec : " + (int) (docCount / ((System.nanoTime() - start) / 1e9)) + "\n}");
+    }
+
+    @Override
+    public QueryResults fullTextQuery(String query) {
+        QueryResults replies = new QueryResults(k);
+        fullTextQuery(query, replies);
+        return replies;
+    }
+
+    /**
+     * Makes a full text query, like a match query on the "text" field. Every term of the query is a should clause,
+     * so a term that appears twice in the query counts twice.
+     * @param query The query
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     */
+    @Override
+    public void fullTextQuery(String query, QueryResults replies) {
+        try {
+            HashMap<String, Integer> terms = analyze(query);
+            String[] queryTerms = terms.keySet().toArray(new String[0]);
+            float[] boosts = new float[queryTerms.length];
+            for (int t = 0; t < queryTerms.length; t++) {
+                boosts[t] = terms.get(queryTerms[t]);
+            }
+            search(queryTerms, boosts, 0, replies);
+        }
+        catch (IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            replies.clear();
+        }
+    }
+
+    @Override
+    public QueryResults MLTQuery(String query) {
+        QueryResults replies = new QueryResults(k);
+        MLTQuery(query, replies);
+        return replies;
+    }
+
+    /**
+     * Makes an MLT query with the parameters of the MLT query of the {@link Client}: the 100 terms of the 'like' text
+     * with the highest tf-idf are selected and at least 10% of them must match.
+     * @param query The 'like' text.
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     */
+    @Override
+    public void MLTQuery(String query, QueryResults replies) {
+        try {
+            HashMap<String, Integer> terms = analyze(query);
+            PriorityQueue<Map.Entry<String, Float>> top = new PriorityQueue<>(MLT_MAX_QUERY_TERMS + 1, Map.Entry.comparingByValue());
+            for (Map.Entry<String, Integer> term : terms.entrySet()) {
+                int docFreq = docFreq(term.getKey().getBytes(StandardCharsets.UTF_8), null);
+                if (docFreq == 0) continue;
+                //the classic tf-idf of lucene's MoreLikeThis
+                float idf = (float) (Math.log((docCount + 1) / (double) (docFreq + 1)) + 1);
+                top.add(new AbstractMap.SimpleEntry<>(term.getKey(), term.getValue() * idf));
+                if (top.size() > MLT_MAX_QUERY_TERMS) top.poll();
+            }
+            String[] queryTerms = new String[top.size()];
+            float[] boosts = new float[top.size()];
+            for (int t = 0; t < queryTerms.length; t++) {
+                queryTerms[t] = top.poll().getKey();
+                boosts[t] = 1;
+            }
+            search(queryTerms, boosts, queryTerms.length * MLT_MINIMUM_SHOULD_MATCH_PERCENT / 100, replies);
+        }
+        catch (IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            replies.clear();
+        }
+    }
+
+    /**
+     * Makes a batch of queries. The queries run one after the other, each on all shards in parallel. Queries by
+     * indexed document are not supported and return no documents.
+     * @param queries The queries, full text or MLT
+     * @param batchSize Not used, the embedded index has no requests to batch
+     * @return The pairs(id, score) of documents retrieved by each query, in the order of the queries
+     */
+    @Override
+    public ArrayList<QueryResults> batchQuery(List<QueryRequest> queries, int batchSize) {
+        ArrayList<QueryResults> replies = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            QueryRequest query = queries.get(i);
+            QueryResults results = new QueryResults(k);
+            if (query.isByDocument()) System.out.println("Query " + (i + 1) + " failed: queries by document are not supported");
+            else if (query.type == QueryRequest.Type.MLT) MLTQuery(query.text, results);
+            else fullTextQuery(query.text, results);
+            replies.add(results);
+        }
+        return replies;
+    }
+
+    @Override
+    public void deleteIndex() {
+        segments = new Segment[0];
+        docCount = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        if (directory.delete()) System.out.println("Index deleted: " + directory.getPath());
+        else System.out.println("Could not delete directory '" + directory.getPath() + "'");
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        System.out.println("Embedded index closed");
+    }
+
+    /* Maps the segment files of the index and computes the statistics of the whole index. */
+    private void open() {
+        ArrayList<Segment> opened = new ArrayList<>();
+        long totalLength = 0;
+        docCount = 0;
+        try {
+            for (int s = 0; segmentFile(s).exists(); s++) {
+                Segment segment = new Segment(segmentFile(s));
+                opened.add(segment);
+                docCount += segment.docCount();
+                totalLength += segment.totalLength();
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        segments = opened.toArray(new Segment[0]);
+        avgLength = docCount == 0 ? 0 : (float) totalLength / docCount;
+    }
+
+    /* Returns the file of a segment. */
+    private File segmentFile(int shard) {
+        return new File(directory, "segment-" + shard + ".seg");
+    }
+
+    /* Analyzes a text and counts the frequency of each term. */
+    private HashMap<String, Integer> analyze(String text) throws IOException {
+        HashMap<String, Integer> termFreqs = new HashMap<>();
+        try (TokenStream stream = analyzer.tokenStream("text", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                termFreqs.merge(term.toString(), 1, Integer::sum);
+            }
+            stream.end();
+        }
+        return termFreqs;
+    }
+
+    /* Returns the document frequency of a term in the whole index. Fills the ordinals of the term per segment. */
+    private int docFreq(byte[] term, int[] ordinals) {
+        int docFreq = 0;
+        for (int s = 0; s < segments.length; s++) {
+            int ordinal = segments[s].ordinal(term);
+            if (ordinals != null) ordinals[s] = ordinal;
+            if (ordinal >= 0) docFreq += segments[s].docFreq(ordinal);
+        }
+        return docFreq;
+    }
+
+    /* Runs a disjunction of terms on all segments in parallel and merges their top hits. The 1st hit is the query
+       text itself so we ignore it, like the queries of the Client. */
+    private void search(String[] terms, float[] boosts, int minimumShouldMatch, QueryResults replies)
+            throws InterruptedException, ExecutionException {
+        int[][] ordinals = new int[terms.length][segments.length];
+        float[] weights = new float[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            int docFreq = docFreq(terms[t].getBytes(StandardCharsets.UTF_8), ordinals[t]);
+            float idf = (float) Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+            weights[t] = boosts[t] * idf;
+        }
+
+        List<Future<TopHits>> futures = new ArrayList<>(segments.length);
+        for (int s = 0; s < segments.length; s++) {
+            final int segment = s;
+            futures.add(executor.submit(() -> searchSegment(segment, ordinals, weights, minimumShouldMatch)));
+        }
+        TopHits top = new TopHits(k + 1);
+        for (Future<TopHits> future : futures) {
+            TopHits hits = future.get();
+            for (int i = 0; i < hits.size; i++) {
+                top.offer(hits.rcns[i], hits.scores[i]);
+            }
+        }
+        top.drainTo(replies, 1);
+    }
+
+    /* Scores the documents of a segment term at a time and returns its top hits. */
+    private TopHits searchSegment(int s, int[][] ordinals, float[] weights, int minimumShouldMatch) {
+        Segment segment = segments[s];
+        Accumulator acc = accumulators.get();
+        acc.ensure(segment.docCount());
+        int[] position = new int[1];
+
+        for (int t = 0; t < ordinals.length; t++) {
+            int ordinal = ordinals[t][s];
+            if (ordinal < 0) continue;
+            position[0] = segment.postings(ordinal);
+            int docFreq = segment.docFreq(ordinal);
+            int doc = 0;
+            for (int i = 0; i < docFreq; i++) {
+                doc += segment.readVInt(position);
+                int tf = segment.readVInt(position);
+                float norm = K1 * (1 - B + B * segment.length(doc) / avgLength);
+                if (acc.matches[doc]++ == 0) acc.touched[acc.touchedCount++] = doc;
+                acc.scores[doc] += weights[t] * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+
+        TopHits hits = new TopHits(k + 1);
+        for (int i = 0; i < acc.touchedCount; i++) {
+            int doc = acc.touched[i];
+            if (acc.matches[doc] >= minimumShouldMatch) hits.offer(segment.rcn(doc), acc.scores[doc]);
+            acc.scores[doc] = 0;
+            acc.matches[doc] = 0;
+        }
+        acc.touchedCount = 0;
+        return hits;
+    }
+}
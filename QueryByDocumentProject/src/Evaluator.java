@@ -0,0 +1,285 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Evaluates the replies of queries against relevance judgments, without writing run files: MAP, P@k, recall@k and
+ * nDCG@k, per query and averaged over the queries, as trec_eval computes them.
+ *
+ * The judgments are loaded once from a qrels file in the trec format ('Q01 0 &lt;rcn&gt; &lt;relevance&gt;') into
+ * a sorted array of the relevant rcns per query id, with their relevance as the gain of nDCG. Each run of queries
+ * is evaluated by a {@link Run}, which computes the metrics of a query as soon as its replies arrive, or hit by hit
+ * as they are retrieved with a {@link Run.Ranking}, without keeping them.
+ *
+ * Unlike trec_eval, the replies are evaluated in the order they were retrieved and not re-sorted by score. Queries
+ * without relevant documents are not evaluated.
+ */
+public class Evaluator {
+
+    /**
+     * The default cutoffs of P@k, recall@k and nDCG@k.
+     */
+    public static final int[] DEFAULT_CUTOFFS = {5, 10, 20};
+
+    private final int[][] relevant; //by query id, sorted rcns of the relevant documents, null if there are none
+    private final int[][] gains; //by query id, relevance of the documents of 'relevant'
+    private final double[][] idealDcg; //by query id, dcg of the ideal ranking at each cutoff
+    private final int[] cutoffs;
+    private final String[] names;
+
+    /**
+     * Loads a qrels file. The query ids are the numbers in the first column, e.g. 1 for 'Q01'.
+     * @param qrels The qrels file
+     * @param cutoffs The values of k, in increasing order
+     */
+    public Evaluator(File qrels, int... cutoffs) throws IOException {
+        for (int c = 0; c < cutoffs.length; c++) {
+            if (cutoffs[c] <= 0 || (c > 0 && cutoffs[c] <= cutoffs[c - 1])) {
+                throw new IllegalArgumentException("Cutoffs must be positive and increasing: " + Arrays.toString(cutoffs));
+            }
+        }
+        this.cutoffs = cutoffs.clone();
+        long[][] judgments = new long[16][]; //by query id, (rcn << 32 | relevance) of the relevant documents
+        int[] counts = new int[16];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(qrels), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 4) continue;
+                int query = queryId(fields[0]);
+                int relevance = Integer.parseInt(fields[3]);
+                if (query < 0 || relevance <= 0) continue;
+                if (query >= judgments.length) {
+                    judgments = Arrays.copyOf(judgments, Math.max(query + 1, judgments.length * 2));
+                    counts = Arrays.copyOf(counts, judgments.length);
+                }
+                if (judgments[query] == null) judgments[query] = new long[16];
+                if (counts[query] == judgments[query].length) judgments[query] = Arrays.copyOf(judgments[query], counts[query] * 2);
+                judgments[query][counts[query]++] = (long) Integer.parseInt(fields[2]) << 32 | relevance;
+            }
+        }
+
+        relevant = new int[judgments.length][];
+        gains = new int[judgments.length][];
+        idealDcg = new double[judgments.length][];
+        for (int q = 0; q < judgments.length; q++) {
+            if (counts[q] == 0) continue;
+            long[] sorted = Arrays.copyOf(judgments[q], counts[q]);
+            Arrays.sort(sorted);
+            relevant[q] = new int[sorted.length];
+            gains[q] = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                relevant[q][i] = (int) (sorted[i] >> 32);
+                gains[q][i] = (int) sorted[i];
+            }
+            int[] ideal = gains[q].clone();
+            Arrays.sort(ideal);
+            idealDcg[q] = new double[cutoffs.length];
+            double dcg = 0;
+            for (int i = 0, c = 0; c < cutoffs.length; i++) {
+                while (c < cutoffs.length && cutoffs[c] == i) idealDcg[q][c++] = dcg;
+                if (i < ideal.length) dcg += ideal[ideal.length - 1 - i] / log2(i + 2);
+            }
+        }
+
+        names = new String[1 + 3 * cutoffs.length];
+        names[0] = "map";
+        for (int c = 0; c < cutoffs.length; c++) {
+            names[1 + c] = "P_" + cutoffs[c];
+            names[1 + cutoffs.length + c] = "recall_" + cutoffs[c];
+            names[1 + 2 * cutoffs.length + c] = "ndcg_cut_" + cutoffs[c];
+        }
+    }
+
+    /**
+     * Starts the evaluation of a run of queries.
+     * @return The run
+     */
+    public Run newRun() {
+        return new Run();
+    }
+
+    /**
+     * @return The names of the metrics, in the order of the values of {@link Run#values} and {@link Run#means}
+     */
+    public String[] names() {
+        return names.clone();
+    }
+
+    /**
+     * @param queryId The id of a query
+     * @return The number of relevant documents of the query
+     */
+    public int relevantCount(int queryId) {
+        return queryId >= 0 && queryId < relevant.length && relevant[queryId] != null ? relevant[queryId].length : 0;
+    }
+
+    /**
+     * The metrics of the queries of a run. Queries can be added from many threads at once.
+     */
+    public class Run {
+
+        private final double[][] values = new double[relevant.length][]; //by query id
+        private final double[] sums = new double[names.length];
+        private int evaluated;
+
+        /**
+         * Evaluates the replies of a query.
+         * @param queryId The id of the query
+         * @param replies The pairs(id, score) of documents retrieved, in rank order
+         * @return The values of the metrics of the query, or null if it has no relevant documents
+         */
+        public double[] add(int queryId, QueryResults replies) {
+            Ranking ranking = begin(queryId);
+            for (int i = 0; i < replies.size(); i++) ranking.accept(i, replies.id(i), replies.score(i));
+            return ranking.end();
+        }
+
+        /**
+         * Starts the evaluation of a query whose replies are retrieved one at a time, e.g. by
+         * {@link Client#streamQuery}, so they need not be kept.
+         * @param queryId The id of the query
+         * @return The ranking of the query. Call {@link Ranking#end} after its last hit
+         */
+        public Ranking begin(int queryId) {
+            return new Ranking(queryId);
+        }
+
+        /**
+         * The metrics of a query, updated as its hits arrive in rank order.
+         */
+        public class Ranking implements HitConsumer {
+
+            private final int queryId;
+            private final double[] metrics = new double[names.length];
+            private double precisionSum, dcg;
+            private int found, c, size;
+
+            private Ranking(int queryId) {
+                this.queryId = queryId;
+            }
+
+            /**
+             * Evaluates the next hit. The rank is the number of hits before it.
+             */
+            @Override
+            public void accept(int rank, int id, float score) {
+                if (relevantCount(queryId) == 0) return;
+                while (c < cutoffs.length && cutoffs[c] == size) record(metrics, c++, found, dcg, queryId);
+                int index = Arrays.binarySearch(relevant[queryId], id);
+                if (index >= 0) {
+                    found++;
+                    precisionSum += (double) found / (size + 1);
+                    dcg += gains[queryId][index] / log2(size + 2);
+                }
+                size++;
+            }
+
+            /**
+             * Adds the metrics of the query to the run.
+             * @return The values of the metrics of the query, or null if it has no relevant documents
+             */
+            public double[] end() {
+                if (relevantCount(queryId) == 0) return null;
+                while (c < cutoffs.length) record(metrics, c++, found, dcg, queryId);
+                metrics[0] = precisionSum / relevant[queryId].length;
+
+                synchronized (Run.this) {
+                    if (values[queryId] != null) {
+                        for (int m = 0; m < sums.length; m++) sums[m] -= values[queryId][m];
+                        evaluated--;
+                    }
+                    values[queryId] = metrics.clone();
+                    for (int m = 0; m < sums.length; m++) sums[m] += metrics[m];
+                    evaluated++;
+                }
+                return metrics.clone();
+            }
+        }
+
+        /**
+         * @param queryId The id of a query
+         * @return The values of the metrics of the query, or null if it was not evaluated
+         */
+        public synchronized double[] values(int queryId) {
+            return queryId >= 0 && queryId < values.length && values[queryId] != null ? values[queryId].clone() : null;
+        }
+
+        /**
+         * @return The means of the metrics over the evaluated queries
+         */
+        public synchronized double[] means() {
+            double[] means = new double[sums.length];
+            for (int m = 0; m < sums.length && evaluated > 0; m++) means[m] = sums[m] / evaluated;
+            return means;
+        }
+
+        /**
+         * @return The number of evaluated queries
+         */
+        public synchronized int evaluated() {
+            return evaluated;
+        }
+
+        /**
+         * Returns the metrics in the format of 'trec_eval -q': a line per metric and query, then the means as
+         * query 'all'.
+         * @param perQuery False to return only the means
+         * @return The metrics
+         */
+        public synchronized String report(boolean perQuery) {
+            StringBuilder report = new StringBuilder();
+            if (perQuery) {
+                for (int q = 0; q < values.length; q++) {
+                    if (values[q] == null) continue;
+                    String id = String.format("Q%02d", q);
+                    for (int m = 0; m < names.length; m++) appendLine(report, names[m], id, values[q][m]);
+                }
+            }
+            appendLine(report, "num_q", "all", evaluated);
+            double[] means = means();
+            for (int m = 0; m < names.length; m++) appendLine(report, names[m], "all", means[m]);
+            return report.toString();
+        }
+
+        /* Records P@k, recall@k and nDCG@k of the cutoff with the given index. */
+        private void record(double[] metrics, int c, int found, double dcg, int queryId) {
+            int k = cutoffs.length;
+            metrics[1 + c] = (double) found / cutoffs[c];
+            metrics[1 + k + c] = (double) found / relevant[queryId].length;
+            metrics[1 + 2 * k + c] = idealDcg[queryId][c] > 0 ? dcg / idealDcg[queryId][c] : 0;
+        }
+    }
+
+    /* Parses the number of a query id, e.g. 1 for 'Q01'. Returns -1 if there is no number. */
+    static int queryId(String id) {
+        int value = -1;
+        for (int i = 0; i < id.length(); i++) {
+            char ch = id.charAt(i);
+            if (ch >= '0' && ch <= '9') value = Math.max(value, 0) * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    /* Appends a line of the report. */
+    private static void appendLine(StringBuilder report, String name, String query, double value) {
+        report.append(String.format(Locale.ROOT, "%-15s\t%s\t%.4f%n", name, query, value));
+    }
+
+    /* Appends a line of the report with an integer value. */
+    private static void appendLine(StringBuilder report, String name, String query, int value) {
+        report.append(String.format(Locale.ROOT, "%-15s\t%s\t%d%n", name, query, value));
+    }
+
+    /* Returns the base 2 logarithm. */
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+}
@@ -0,0 +1,245 @@
+// Tsogkas Evangelos 3150185
+
+import org.apache.http.HttpHost;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless fan out of the queries to several indices, e.g. indices of the same collection created with different
+ * {@link IndexSettings} (BM25 against another similarity or stemmer). Each query is sent to all the indices at once
+ * and its replies are collected until a deadline, so a pass over the queries takes about the latency of the slowest
+ * index per query instead of the sum of the latencies of the indices.
+ *
+ * The replies of each index are written to a run file named after the index, and their fusion (see
+ * {@link ResultFusion}) to 'fused_&lt;method&gt;.txt', all in the output directory. An index that misses the deadline
+ * of a query, or fails it, has no replies for it, in its run and in the fusion, and a search that misses the deadline
+ * is cancelled. The runs are evaluated if there are relevance judgments (see {@link Evaluator}).
+ *
+ * Usage: FanOutMain &lt;index name&gt;,&lt;index name&gt;,... [--phrases &lt;directory&gt;] [--pct 1.0]
+ *        [--type fulltext|mlt] [--deadline 5000] [--fusion none|rrf|score] [--rrfK 60] [--depth 20]
+ *        [--output output/fanout] [--nodes host:port,...]
+ * Without '--phrases' the queries are those of 'input/testingQueries.txt'. The deadline is in milliseconds from the
+ * time a query is sent and the depth is the number of documents of the fused ranking.
+ */
+public class FanOutMain {
+
+    public static void main (String args[]) {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            System.out.println("Usage: FanOutMain <index name>,<index name>,... [--phrases <directory>] [--pct 1.0]"
+                    + " [--type fulltext|mlt] [--deadline 5000] [--fusion none|rrf|score] [--rrfK 60] [--depth 20]"
+                    + " [--output output/fanout] [--nodes host:port,...]");
+            return;
+        }
+        String[] indexNames = args[0].split(",");
+        String phrases = null, type = "fulltext", fusionMethod = "rrf", output = "output/fanout", nodes = null;
+        float pct = 1f;
+        long deadlineMillis = 5000;
+        int rrfK = ResultFusion.DEFAULT_RRF_K, depth = 20;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                System.out.println("Missing value of " + args[i]);
+                return;
+            }
+            switch (args[i]) {
+                case "--phrases": phrases = args[i + 1]; break;
+                case "--pct": pct = Float.parseFloat(args[i + 1]); break;
+                case "--type": type = args[i + 1]; break;
+                case "--deadline": deadlineMillis = Long.parseLong(args[i + 1]); break;
+                case "--fusion": fusionMethod = args[i + 1]; break;
+                case "--rrfK": rrfK = Integer.parseInt(args[i + 1]); break;
+                case "--depth": depth = Integer.parseInt(args[i + 1]); break;
+                case "--output": output = args[i + 1]; break;
+                case "--nodes": nodes = args[i + 1]; break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+
+        ArrayList<String> queries;
+        if (phrases == null) queries = ElasticSearchMain.readQueries();
+        else if (new File(phrases).exists()) queries = ElasticSearchMain.queriesFromPhrases(ElasticSearchMain.loadPhrases(phrases), pct);
+        else {
+            System.out.println("Directory does not exist...");
+            return;
+        }
+        if (queries.isEmpty()) {
+            System.out.println("No queries...");
+            return;
+        }
+        ResultFusion fusion = fusionMethod.equals("none") ? null
+                : new ResultFusion(ResultFusion.Method.valueOf(fusionMethod.toUpperCase()), rrfK);
+
+        //a client per index, the cache is not enabled so every query goes to the cluster
+        HttpHost[] hosts = nodes != null ? NodeRouter.parseHosts(nodes) : null;
+        Client[] clients = new Client[indexNames.length];
+        boolean exist = true;
+        for (int i = 0; i < indexNames.length; i++) {
+            clients[i] = hosts != null ? new Client(indexNames[i], hosts) : new Client(indexNames[i]);
+            clients[i].setLeanResponses(true);
+            if (!clients[i].indexExists()) {
+                System.out.println("Index '" + indexNames[i] + "' does not exist...");
+                exist = false;
+            }
+        }
+        if (exist) {
+            FanOut fanOut = new FanOut(indexNames, clients, type.equals("mlt") ? QueryRequest.Type.MLT : QueryRequest.Type.FULL_TEXT,
+                    TimeUnit.MILLISECONDS.toNanos(deadlineMillis), fusion, depth);
+            try {
+                fanOut.run(queries, output, ElasticSearchMain.loadEvaluator());
+                System.out.println(fanOut.report());
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (Client client : clients) client.close();
+    }
+
+    /* A pass of the queries over the indices. */
+    private static class FanOut {
+
+        private final String[] indexNames;
+        private final Client[] clients;
+        private final QueryRequest.Type type;
+        private final long deadlineNanos;
+        private final ResultFusion fusion; //null if the replies are not fused
+        private final int depth;
+        private final AtomicLong[] serviceNanos; //by index, total time of its searches
+        private final int[] missed; //by index, number of queries that missed the deadline
+        private final int[] failed; //by index, number of queries that failed
+        private Evaluator.Run[] runs; //by index and then the fused run, null if there are no relevance judgments
+        private long fanOutNanos; //total time from sending a query to having all its replies or the deadline
+        private int queries;
+
+        FanOut(String[] indexNames, Client[] clients, QueryRequest.Type type, long deadlineNanos, ResultFusion fusion, int depth) {
+            this.indexNames = indexNames;
+            this.clients = clients;
+            this.type = type;
+            this.deadlineNanos = deadlineNanos;
+            this.fusion = fusion;
+            this.depth = depth;
+            serviceNanos = new AtomicLong[clients.length];
+            for (int i = 0; i < clients.length; i++) serviceNanos[i] = new AtomicLong();
+            missed = new int[clients.length];
+            failed = new int[clients.length];
+        }
+
+        /* Sends each query to all the indices and writes the runs. The queries are sent one after the other. */
+        void run(ArrayList<String> texts, String output, Evaluator evaluator) throws IOException {
+            int n = clients.length;
+            File[] files = new File[fusion != null ? n + 1 : n];
+            RunFileWriter[] writers = new RunFileWriter[files.length];
+            runs = evaluator != null ? new Evaluator.Run[files.length] : null;
+            for (int i = 0; i < files.length; i++) {
+                String name = i < n ? indexNames[i] : "fused_" + fusion.getMethod().name().toLowerCase();
+                files[i] = new File(output, name + ".txt");
+                files[i].delete();
+                writers[i] = new RunFileWriter(files[i], name, false);
+                if (runs != null) runs[i] = evaluator.newRun();
+            }
+
+            //two threads per index, so that the next query does not wait for a cancelled search to stop
+            ExecutorService executor = Executors.newFixedThreadPool(2 * n);
+            try {
+                ArrayList<QueryResults> replies = new ArrayList<>(n);
+                for (int q = 0; q < texts.size(); q++) {
+                    String text = texts.get(q);
+                    long start = System.nanoTime();
+                    ArrayList<Future<QueryResults>> futures = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) {
+                        int index = i;
+                        futures.add(executor.submit(() -> search(index, text)));
+                    }
+                    replies.clear();
+                    for (int i = 0; i < n; i++) replies.add(await(i, futures.get(i), start + deadlineNanos));
+                    fanOutNanos += System.nanoTime() - start;
+                    queries++;
+
+                    for (int i = 0; i < n; i++) write(writers, i, q + 1, replies.get(i));
+                    if (fusion != null) write(writers, n, q + 1, fusion.fuse(replies, depth));
+                }
+            }
+            finally {
+                executor.shutdownNow();
+                for (RunFileWriter writer : writers) writer.close();
+            }
+            for (File file : files) System.out.println("Saved replies to file '" + file + "'...");
+        }
+
+        /* Returns the summary of the pass: the mean latency of a query against the mean sum of the latencies of the
+           indices, and per index and for the fused run the deadlines missed and the evaluation. */
+        String report() {
+            double sequentialMillis = 0;
+            for (AtomicLong nanos : serviceNanos) sequentialMillis += nanos.get() / 1e6 / Math.max(queries, 1);
+            StringBuilder report = new StringBuilder("{\n");
+            report.append(String.format(Locale.ROOT, "\tqueries : %d%n\tmean fan out ms : %.1f%n\tmean sum of index ms : %.1f%n",
+                    queries, fanOutNanos / 1e6 / Math.max(queries, 1), sequentialMillis));
+            for (int i = 0; i < clients.length; i++) {
+                report.append(String.format(Locale.ROOT, "\t%s : mean %.1f ms, %d missed the deadline, %d failed",
+                        indexNames[i], serviceNanos[i].get() / 1e6 / Math.max(queries, 1), missed[i], failed[i]));
+                if (runs != null) report.append(String.format(Locale.ROOT, ", map %.4f", runs[i].means()[0]));
+                report.append("\n");
+            }
+            if (fusion != null && runs != null) {
+                report.append(String.format(Locale.ROOT, "\tfused_%s : map %.4f%n", fusion.getMethod().name().toLowerCase(),
+                        runs[clients.length].means()[0]));
+            }
+            return report.append("}").toString();
+        }
+
+        /* Runs a query against an index. Returns null if it failed, the client prints the error. */
+        private QueryResults search(int index, String text) {
+            long start = System.nanoTime();
+            try {
+                QueryResults replies = new QueryResults();
+                boolean done = type == QueryRequest.Type.MLT ? clients[index].MLTQuery(text, QueryParameters.DEFAULT, replies)
+                        : clients[index].fullTextQuery(text, QueryParameters.DEFAULT, replies);
+                return done ? replies : null;
+            }
+            finally {
+                serviceNanos[index].addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        /* Waits for the replies of an index until the deadline. If they did not arrive in time the search is
+           interrupted, so it does not keep a thread from the next queries. Returns null if the search missed the
+           deadline or failed. */
+        private QueryResults await(int index, Future<QueryResults> future, long deadline) {
+            try {
+                QueryResults replies = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (replies == null) failed[index]++;
+                return replies;
+            }
+            catch (TimeoutException e) {
+                future.cancel(true);
+                missed[index]++;
+            }
+            catch (ExecutionException e) {
+                failed[index]++;
+                e.printStackTrace();
+            }
+            catch (InterruptedException e) {
+                failed[index]++;
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        /* Writes the replies of a query to a run and evaluates them. Missing replies are written as none. */
+        private void write(RunFileWriter[] writers, int run, int queryId, QueryResults replies) throws IOException {
+            if (replies == null) replies = new QueryResults(1);
+            writers[run].write(queryId, replies);
+            if (runs != null) runs[run].add(queryId, replies);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+// Tsogkas Evangelos 3150185
+
+/**
+ * Receives the hits of a query one at a time, as they are retrieved. See {@link Client#streamQuery}.
+ */
+public interface HitConsumer {
+
+    /**
+     * Receives a hit.
+     * @param rank The rank of the hit, starting from 0
+     * @param id The document id (rcn)
+     * @param score The score of the document
+     */
+    void accept(int rank, int id, float score);
+}
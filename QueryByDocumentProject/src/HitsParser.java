@@ -0,0 +1,114 @@
+// Tsogkas Evangelos 3150185
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Streaming parser of search responses. Reads only the ids and scores of the hits directly into
+ * {@link QueryResults}, without building the object graph of the response. All other fields are skipped.
+ */
+public class HitsParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private HitsParser() {
+    }
+
+    /**
+     * Parses the response of a search request.
+     * @param in The response body
+     * @param replies The results to clear and fill with the pairs(id, score) of the hits
+     * @param skip The number of hits to skip from the start
+     * @return The 'took' time of the search in milliseconds or -1 if it is missing
+     */
+    public static long parseSearch(InputStream in, QueryResults replies, int skip) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Expected a json object");
+            return parseResponse(parser, replies, skip);
+        }
+    }
+
+    /**
+     * Parses the response of a multi search request.
+     * @param in The response body
+     * @param replies The results to clear and fill with the pairs(id, score) of the hits, one per search
+     * @param failed Set to true for the searches that failed
+     * @param skip The number of hits to skip from the start of each search, in the order of the searches
+     * @return The number of searches in the response
+     */
+    public static int parseMultiSearch(InputStream in, List<QueryResults> replies, boolean[] failed, int[] skip) throws IOException {
+        int count = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Expected a json object");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (field.equals("responses") && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        QueryResults results = replies.get(count);
+                        failed[count] = parseResponse(parser, results, skip[count]) == -2;
+                        count++;
+                    }
+                }
+                else parser.skipChildren();
+            }
+        }
+        return count;
+    }
+
+    /* Parses a search response object, from after its start up to its end.
+       Returns its 'took' time, -1 if it is missing or -2 if the search failed. */
+    private static long parseResponse(JsonParser parser, QueryResults replies, int skip) throws IOException {
+        replies.clear();
+        long took = -1;
+        boolean error = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("took") && token.isNumeric()) {
+                took = parser.getLongValue();
+            }
+            else if (field.equals("error")) {
+                error = true;
+                parser.skipChildren();
+            }
+            else if (field.equals("hits") && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String hitsField = parser.getCurrentName();
+                    JsonToken hitsToken = parser.nextToken();
+                    if (hitsField.equals("hits") && hitsToken == JsonToken.START_ARRAY) {
+                        int rank = 0;
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            parseHit(parser, replies, rank++ >= skip);
+                        }
+                    }
+                    else parser.skipChildren();
+                }
+            }
+            else parser.skipChildren();
+        }
+        return error ? -2 : took;
+    }
+
+    /* Parses a hit object, from after its start up to its end, and adds it to the replies. */
+    private static void parseHit(JsonParser parser, QueryResults replies, boolean add) throws IOException {
+        int id = 0;
+        float score = Float.NaN;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("_id") && token == JsonToken.VALUE_STRING) {
+                id = Integer.parseInt(parser.getText());
+            }
+            else if (field.equals("_score") && token.isNumeric()) {
+                score = parser.getFloatValue();
+            }
+            else parser.skipChildren();
+        }
+        if (add) replies.add(id, score);
+    }
+}
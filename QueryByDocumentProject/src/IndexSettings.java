@@ -0,0 +1,162 @@
+// Tsogkas Evangelos 3150185
+
+import org.json.simple.JSONObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The settings of the index created by {@link Client#createIndex(IndexSettings)}.
+ *
+ * The defaults are the original settings of the project: 5 shards, standard tokenizer with lower case and english
+ * stopwords, BM25 similarity and term vectors on the "text" field. The original settings declared an english stemmer
+ * inside an analyzer of type standard, which ignores filters, so the text was never stemmed and there is no stemmer
+ * by default either. The analyzer is a custom one, so that a stemmer set with {@link #stemmer} is applied.
+ */
+public class IndexSettings {
+
+    private int shards = 5;
+    private int replicas = -1;
+    private String stopwords = "_english_";
+    private String stemmer; //null for no stemmer
+    private String similarity = "BM25";
+    private final Map<String, Object> similarityParameters = new LinkedHashMap<>();
+    private String termVector = "yes";
+
+    /**
+     * @param shards The number of shards
+     * @return This settings
+     */
+    public IndexSettings shards(int shards) {
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * @param replicas The number of replicas, or -1 for the default of the cluster
+     * @return This settings
+     */
+    public IndexSettings replicas(int replicas) {
+        this.replicas = replicas;
+        return this;
+    }
+
+    /**
+     * @param stopwords The stopwords of the analyzer (e.g. "_english_" or "_none_")
+     * @return This settings
+     */
+    public IndexSettings stopwords(String stopwords) {
+        this.stopwords = stopwords;
+        return this;
+    }
+
+    /**
+     * @param stemmer The language of the stemmer (e.g. "english" or "light_english"), or null for no stemmer. It is
+     *                applied after the stopwords
+     * @return This settings
+     */
+    public IndexSettings stemmer(String stemmer) {
+        this.stemmer = stemmer;
+        return this;
+    }
+
+    /**
+     * Sets the default similarity, e.g. "BM25", "classic", "LMDirichlet" or "DFR".
+     * @param similarity The type of the similarity
+     * @return This settings
+     */
+    public IndexSettings similarity(String similarity) {
+        this.similarity = similarity;
+        similarityParameters.clear();
+        return this;
+    }
+
+    /**
+     * Sets a parameter of the similarity, e.g. "k1" and "b" of BM25 or "mu" of LMDirichlet.
+     * @param name The name of the parameter
+     * @param value The value of the parameter
+     * @return This settings
+     */
+    public IndexSettings similarityParameter(String name, Object value) {
+        similarityParameters.put(name, value);
+        return this;
+    }
+
+    /**
+     * @param termVector The term vectors of the "text" field (e.g. "yes" or "no")
+     * @return This settings
+     */
+    public IndexSettings termVector(String termVector) {
+        this.termVector = termVector;
+        return this;
+    }
+
+    /**
+     * @return The number of shards
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the body of the create index request.
+     * @return The settings and mappings as json
+     */
+    public String toJson() {
+        StringBuilder similarityJson = new StringBuilder("\"type\" : " + quote(similarity));
+        for (Map.Entry<String, Object> parameter : similarityParameters.entrySet()) {
+            Object value = parameter.getValue();
+            similarityJson.append(", ").append(quote(parameter.getKey())).append(" : ")
+                    .append(value instanceof String ? quote((String) value) : String.valueOf(value));
+        }
+
+        return "{\n" +
+                "    \"settings\": {\n" +
+                "        \"analysis\" : {\n" +
+                "            \"filter\" : {\n" +
+                "                \"my_stop\" : {\n" +
+                "                    \"type\" : \"stop\",\n" +
+                "                    \"stopwords\" : " + quote(stopwords) + "\n" +
+                (stemmer == null ? "                }\n" :
+                "                },\n" +
+                "                \"my_stemmer\" : {\n" +
+                "                    \"type\" : \"stemmer\",\n" +
+                "                    \"name\" : " + quote(stemmer) + "\n" +
+                "                }\n") +
+                "            },\n" +
+                "            \"analyzer\" : {\n" +
+                "                \"my_analyzer\" : {\n" +
+                "                    \"type\" : \"custom\",\n" +
+                "                    \"tokenizer\" : \"standard\",\n" +
+                "                    \"filter\" : [\"lowercase\", \"my_stop\"" + (stemmer == null ? "" : ", \"my_stemmer\"") + "]\n" +
+                "                }\n" +
+                "            }\n" +
+                "        },\n" +
+                "        \"index\" : {\n" +
+                "          \"number_of_shards\" : " + shards + ", \n" +
+                (replicas < 0 ? "" : "          \"number_of_replicas\" : " + replicas + ", \n") +
+                "          \"similarity\" : {\n" +
+                "              \"default\" : {\n" +
+                "                " + similarityJson + "\n" +
+                "                }\n" +
+                "            }\n" +
+                "        }\n" +
+                "    },\n" +
+                "   \"mappings\":{\n" +
+                "      \"_doc\": {\n" +
+                "        \"properties\":{\n" +
+                "          \"text\": {\n" +
+                "            \"type\":\"text\",\n" +
+                "            \"analyzer\":\"my_analyzer\",\n" +
+                "            \"term_vector\" : " + quote(termVector) + "\n" +
+                "          }\n" +
+                "        }\n" +
+                "      }\n" +
+                "   }\n" +
+                "}";
+    }
+
+    /* Quotes and escapes a json string. */
+    private static String quote(String s) {
+        return "\"" + JSONObject.escape(s) + "\"";
+    }
+}
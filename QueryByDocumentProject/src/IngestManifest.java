@@ -0,0 +1,211 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The content hashes of the indexed projects, by rcn. Used by {@link Client#syncCollection} to index only new or
+ * changed projects and to delete removed ones.
+ *
+ * The entries are kept in an open addressing hash table of primitive arrays and saved to a binary file of 12 bytes
+ * per project. Methods are synchronized, because entries are updated by the bulk response threads.
+ */
+public class IngestManifest {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    /**
+     * Constructor. Creates an empty manifest.
+     */
+    public IngestManifest() {
+        allocate(1024);
+    }
+
+    /**
+     * Computes the content hash of a project from its indexed fields (64 bit FNV-1a).
+     * @param project The project
+     * @return The hash
+     */
+    public static long hash(ProjectRecord project) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, project.acronym);
+        hash = hash(hash, project.text);
+        hash = hash(hash, project.identifier);
+        return hash;
+    }
+
+    /* Adds the chars of a string and a separator to the hash. */
+    private static long hash(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return (hash ^ 0xff) * 0x100000001b3L;
+    }
+
+    /**
+     * @param rcn The rcn of the project
+     * @return True if the project is in the manifest with the given hash
+     */
+    public synchronized boolean contains(int rcn, long hash) {
+        int slot = slot(rcn);
+        return keys[slot] == rcn && values[slot] == hash;
+    }
+
+    /**
+     * Adds or updates a project.
+     * @param rcn The rcn of the project
+     * @param hash The content hash of the project
+     */
+    public synchronized void put(int rcn, long hash) {
+        int slot = slot(rcn);
+        if (keys[slot] != rcn) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash(keys.length * 2);
+                slot = slot(rcn);
+            }
+            keys[slot] = rcn;
+            size++;
+        }
+        values[slot] = hash;
+    }
+
+    /**
+     * Removes a project.
+     * @param rcn The rcn of the project
+     */
+    public synchronized void remove(int rcn) {
+        int slot = slot(rcn);
+        if (keys[slot] != rcn) return;
+        //backward shift deletion keeps the probe sequences of the other keys intact
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int ideal = mix(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        size--;
+    }
+
+    /**
+     * @return The rcns of all projects, in ascending order
+     */
+    public synchronized int[] rcns() {
+        int[] rcns = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != EMPTY) rcns[n++] = key;
+        }
+        Arrays.sort(rcns);
+        return rcns;
+    }
+
+    /**
+     * @return The number of projects
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Saves the manifest. Writes a temporary file and renames it, so an interrupted save keeps the previous file.
+     * @param file The file
+     */
+    public synchronized void save(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    out.writeInt(keys[i]);
+                    out.writeLong(values[i]);
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) throw new IOException("Cannot rename '" + tmp + "' to '" + file + "'");
+        }
+    }
+
+    /**
+     * Loads a manifest.
+     * @param file The file
+     * @return The manifest, empty if the file does not exist
+     */
+    public static IngestManifest load(File file) throws IOException {
+        IngestManifest manifest = new IngestManifest();
+        if (!file.exists()) return manifest;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != FORMAT_VERSION) throw new IOException("Unknown manifest format of '" + file + "'");
+            int count = in.readInt();
+            manifest.allocate(Math.max(1024, Integer.highestOneBit(count * 2) * 2));
+            for (int i = 0; i < count; i++) {
+                manifest.put(in.readInt(), in.readLong());
+            }
+        }
+        return manifest;
+    }
+
+    /* Returns the slot of the key, or the empty slot where it would be added. */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /* Spreads the bits of the key. */
+    private static int mix(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /* Allocates empty tables of the given power of two capacity. */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /* Moves the entries to tables of the given capacity. */
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes the xml collection directly, without the intermediate files of {@link CreateFilesMain}.
+ *
+ * Parser threads turn the xml files into {@link ProjectRecord}s and put them in a bounded queue. The calling thread
+ * takes them from the queue and adds them to a {@link BulkIngester}, which keeps several bulk requests in flight,
+ * so parsing and network I/O overlap. The xml files with the "text" element and the json file can optionally be
+ * written as a side output. The json records are written in the order they are indexed.
+ */
+public class IngestPipeline {
+
+    private static final int QUEUE_CAPACITY = 10000;
+
+    private final BulkIngester ingester;
+    private final int parserThreads;
+    private final File xmlDirectory;
+    private final File jsonFile;
+
+    private final ThreadLocal<ProjectParser> parsers = ThreadLocal.withInitial(ProjectParser::new);
+    private final ThreadLocal<ProjectXMLWriter> xmlWriters = ThreadLocal.withInitial(() -> {
+        try {
+            return new ProjectXMLWriter();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * Constructor.
+     * @param ingester The bulk ingester that sends the documents
+     * @param parserThreads The number of parser threads
+     * @param xmlDirectory The directory to write the xml files with the "text" element to, or null
+     * @param jsonFile The json file to write the records to, or null
+     */
+    public IngestPipeline(BulkIngester ingester, int parserThreads, File xmlDirectory, File jsonFile) {
+        this.ingester = ingester;
+        this.parserThreads = parserThreads;
+        this.xmlDirectory = xmlDirectory;
+        this.jsonFile = jsonFile;
+    }
+
+    /**
+     * Parses and indexes the xml files. Returns when all documents are indexed.
+     * @param files The xml files of the collection
+     */
+    public void run(File[] files) throws IOException, InterruptedException {
+        final BlockingQueue<ProjectRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicInteger nextFile = new AtomicInteger();
+        final AtomicInteger activeProducers = new AtomicInteger(parserThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(parserThreads);
+        for (int t = 0; t < parserThreads; t++) {
+            executor.execute(() -> {
+                try {
+                    int i;
+                    while ((i = nextFile.getAndIncrement()) < files.length) {
+                        try {
+                            for (ProjectRecord project : parsers.get().parse(files[i])) {
+                                if (xmlDirectory != null) {
+                                    xmlWriters.get().write(project, new File(xmlDirectory, files[i].getName()));
+                                }
+                                queue.put(project);
+                            }
+                        }
+                        catch (InterruptedException e) {
+                            throw e;
+                        }
+                        catch (Exception e) {
+                            System.out.println("\nFailed to parse file '" + files[i] + "'");
+                            e.printStackTrace();
+                        }
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    activeProducers.decrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+
+        Writer writer = null;
+        try {
+            if (jsonFile != null) {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(jsonFile), "UTF-8"), 1 << 16);
+            }
+            while (true) {
+                ProjectRecord project = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (project == null) {
+                    //the producers put all their records before they finish
+                    if (activeProducers.get() == 0 && queue.isEmpty()) break;
+                    continue;
+                }
+                ingester.add(project.rcn, project.toSource());
+                if (writer != null) writer.write(project.toBulkLines());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            try {
+                if (writer != null) writer.close();
+            }
+            finally {
+                ingester.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+// Tsogkas Evangelos 3150185
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load test. Replays the queries of 'input/testingQueries.txt' or of the extracted phrases files against an
+ * index at a fixed arrival rate and prints the latency percentiles and the achieved throughput.
+ *
+ * The load is open loop: query i is due at start + i / qps whether or not the previous queries have completed, and
+ * its latency is measured from the time it was due, not from the time a worker picked it up. So when the cluster
+ * falls behind the queueing delay is part of the latency, instead of being hidden by sending fewer queries
+ * (coordinated omission). The service time, from the time a worker picked the query up, is reported too.
+ *
+ * Usage: LoadTestMain &lt;index name&gt; [--qps 20] [--workers 16] [--warmup 10] [--duration 60]
+ *        [--type fulltext|mlt|both] [--phrases &lt;directory&gt;] [--json &lt;file&gt;]
+ *        [--nodes host:port,...] [--routing round_robin|least_outstanding|latency_weighted] [--hedge 95] [--sniff]
+ * The warm up and the duration are in seconds. The queries of the warm up are sent but not measured.
+ * Without '--routing' the searches use the round robin of the rest client, see {@link NodeRouter}.
+ */
+public class LoadTestMain {
+
+    private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    public static void main (String args[]) throws InterruptedException {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            System.out.println("Usage: LoadTestMain <index name> [--qps 20] [--workers 16] [--warmup 10] [--duration 60]"
+                    + " [--type fulltext|mlt|both] [--phrases <directory>] [--json <file>]"
+                    + " [--nodes host:port,...] [--routing round_robin|least_outstanding|latency_weighted] [--hedge 95] [--sniff]");
+            return;
+        }
+        String indexName = args[0];
+        double qps = 20;
+        int workers = 16;
+        int warmupSeconds = 10, durationSeconds = 60;
+        String type = "fulltext", phrases = null, json = null, nodes = null, routing = null;
+        double hedge = 0;
+        boolean sniff = false;
+        for (int i = 1; i < args.length; i += 2) {
+            if (args[i].equals("--sniff")) {
+                sniff = true;
+                i--;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                System.out.println("Missing value of " + args[i]);
+                return;
+            }
+            switch (args[i]) {
+                case "--qps": qps = Double.parseDouble(args[i + 1]); break;
+                case "--workers": workers = Integer.parseInt(args[i + 1]); break;
+                case "--warmup": warmupSeconds = Integer.parseInt(args[i + 1]); break;
+                case "--duration": durationSeconds = Integer.parseInt(args[i + 1]); break;
+                case "--type": type = args[i + 1]; break;
+                case "--phrases": phrases = args[i + 1]; break;
+                case "--json": json = args[i + 1]; break;
+                case "--nodes": nodes = args[i + 1]; break;
+                case "--routing": routing = args[i + 1]; break;
+                case "--hedge": hedge = Double.parseDouble(args[i + 1]); break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+
+        ArrayList<String> texts;
+        if (phrases == null) texts = ElasticSearchMain.readQueries();
+        else if (new File(phrases).exists()) texts = ElasticSearchMain.queriesFromExtractedPhrases(phrases, 1f);
+        else {
+            System.out.println("Directory does not exist...");
+            return;
+        }
+        ArrayList<QueryRequest> queries = new ArrayList<>();
+        for (String text : texts) {
+            if (!type.equals("mlt")) queries.add(new QueryRequest(QueryRequest.Type.FULL_TEXT, text));
+            if (!type.equals("fulltext")) queries.add(new QueryRequest(QueryRequest.Type.MLT, text));
+        }
+        if (queries.isEmpty()) {
+            System.out.println("No queries...");
+            return;
+        }
+
+        //the cache is not enabled, every query goes to the cluster
+        Client client = nodes == null ? new Client(indexName) : new Client(indexName, NodeRouter.parseHosts(nodes));
+        client.setLeanResponses(true);
+        if (routing != null) {
+            NodeRouter router = client.enableRouting(NodeRouter.Policy.valueOf(routing.toUpperCase()));
+            router.setHedging(hedge);
+            if (sniff) router.startSniffing(TimeUnit.MINUTES.toMillis(1));
+        }
+        if (!client.indexExists()) {
+            System.out.println("Index does not exist...");
+            client.close();
+            return;
+        }
+
+        LoadTest test = new LoadTest(client, queries, qps, workers);
+        test.run(TimeUnit.SECONDS.toNanos(warmupSeconds), TimeUnit.SECONDS.toNanos(durationSeconds));
+        System.out.println(test.report());
+        if (json != null) {
+            try (PrintWriter pw = new PrintWriter(new FileWriter(json))) {
+                pw.println(test.toJson());
+                System.out.println("Saved results to file '" + json + "'...");
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        client.close();
+    }
+
+    /* A run of the load test. */
+    private static class LoadTest {
+
+        private final Client client;
+        private final ArrayList<QueryRequest> queries;
+        private final double qps;
+        private final int workers;
+        private final ThreadLocal<QueryResults> replies = ThreadLocal.withInitial(() -> new QueryResults(20));
+
+        //latencies from the time a query was due and from the time a worker picked it up, in microseconds
+        private final Recorder latencyRecorder = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+        private final Recorder serviceRecorder = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger maxOutstanding = new AtomicInteger();
+        private final AtomicLong lastCompletion = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong(); //measured queries that failed, not in the histograms
+
+        private long measureStart;
+        private long sent;
+        private Histogram latency, service;
+
+        LoadTest(Client client, ArrayList<QueryRequest> queries, double qps, int workers) {
+            this.client = client;
+            this.queries = queries;
+            this.qps = qps;
+            this.workers = workers;
+        }
+
+        /* Sends the queries at the arrival rate until the warm up and the duration have passed, then waits for the
+           outstanding queries. The queries due during the warm up are not measured. */
+        void run(long warmupNanos, long durationNanos) throws InterruptedException {
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            double intervalNanos = 1e9 / qps;
+            long start = System.nanoTime();
+            measureStart = start + warmupNanos;
+            long end = measureStart + durationNanos;
+            System.out.println("Warming up for " + TimeUnit.NANOSECONDS.toSeconds(warmupNanos) + " s...");
+            boolean measuring = warmupNanos == 0;
+            for (long i = 0; ; i++) {
+                final long due = start + (long) (i * intervalNanos);
+                if (due >= end) break;
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (!measuring && due >= measureStart) {
+                    measuring = true;
+                    System.out.println("Measuring for " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " s...");
+                }
+                final boolean measured = measuring;
+                final QueryRequest query = queries.get((int) (i % queries.size()));
+                maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+                executor.execute(() -> execute(query, due, measured));
+                if (measured) sent++;
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+            latency = latencyRecorder.getIntervalHistogram();
+            service = serviceRecorder.getIntervalHistogram();
+        }
+
+        /* Runs a query and records its latencies, or counts it as failed. */
+        private void execute(QueryRequest query, long due, boolean measured) {
+            try {
+                long start = System.nanoTime();
+                QueryResults results = replies.get();
+                boolean done = query.type == QueryRequest.Type.MLT
+                        ? client.MLTQuery(query.text, QueryParameters.DEFAULT, results)
+                        : client.fullTextQuery(query.text, QueryParameters.DEFAULT, results);
+                long end = System.nanoTime();
+                if (!measured) return;
+                if (!done) {
+                    failed.incrementAndGet();
+                    return;
+                }
+                latencyRecorder.recordValue(Math.min((end - due) / 1000, HIGHEST_MICROS));
+                serviceRecorder.recordValue(Math.min((end - start) / 1000, HIGHEST_MICROS));
+                lastCompletion.accumulateAndGet(end, Math::max);
+            }
+            finally {
+                outstanding.decrementAndGet();
+            }
+        }
+
+        /* Returns the number of measured queries that succeeded per second, from the end of the warm up to the last
+           completion. */
+        double throughput() {
+            double seconds = (lastCompletion.get() - measureStart) / 1e9;
+            return seconds > 0 ? latency.getTotalCount() / seconds : 0;
+        }
+
+        /* Returns the results as text. */
+        String report() {
+            StringBuilder report = new StringBuilder();
+            report.append("{\n\ttarget qps : ").append(format(qps));
+            report.append("\n\tachieved qps : ").append(format(throughput()));
+            report.append("\n\tworkers : ").append(workers);
+            report.append("\n\tqueries sent : ").append(sent);
+            report.append("\n\tqueries completed : ").append(latency.getTotalCount());
+            report.append("\n\tqueries failed : ").append(failed.get());
+            report.append("\n\tmax outstanding : ").append(maxOutstanding.get());
+            appendPercentiles(report, "latency", latency);
+            appendPercentiles(report, "service time", service);
+            return report.append("\n}").toString();
+        }
+
+        /* Returns the results and the metrics of the client as a json object. */
+        String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"target_qps\":").append(format(qps))
+                    .append(",\"achieved_qps\":").append(format(throughput()))
+                    .append(",\"workers\":").append(workers)
+                    .append(",\"sent\":").append(sent)
+                    .append(",\"completed\":").append(latency.getTotalCount())
+                    .append(",\"failed\":").append(failed.get())
+                    .append(",\"max_outstanding\":").append(maxOutstanding.get())
+                    .append(",\"latency_ms\":");
+            appendPercentiles(json, latency);
+            json.append(",\"service_time_ms\":");
+            appendPercentiles(json, service);
+            return json.append(",\"client\":").append(client.getMetrics().toJson()).append('}').toString();
+        }
+
+        /* Appends a line with the percentiles of a histogram of microseconds, in milliseconds. */
+        private static void appendPercentiles(StringBuilder report, String name, Histogram histogram) {
+            report.append("\n\t").append(name).append(" (ms) : p50 ").append(millis(histogram.getValueAtPercentile(50)))
+                    .append(", p90 ").append(millis(histogram.getValueAtPercentile(90)))
+                    .append(", p99 ").append(millis(histogram.getValueAtPercentile(99)))
+                    .append(", p99.9 ").append(millis(histogram.getValueAtPercentile(99.9)))
+                    .append(", max ").append(millis(histogram.getMaxValue()));
+        }
+
+        /* Appends a json object with the percentiles of a histogram of microseconds, in milliseconds. */
+        private static void appendPercentiles(StringBuilder json, Histogram histogram) {
+            json.append("{\"p50\":").append(millis(histogram.getValueAtPercentile(50)))
+                    .append(",\"p90\":").append(millis(histogram.getValueAtPercentile(90)))
+                    .append(",\"p99\":").append(millis(histogram.getValueAtPercentile(99)))
+                    .append(",\"p99.9\":").append(millis(histogram.getValueAtPercentile(99.9)))
+                    .append(",\"max\":").append(millis(histogram.getMaxValue())).append('}');
+        }
+
+        /* Formats microseconds as milliseconds. */
+        private static String millis(long micros) {
+            return format(micros / 1000.0);
+        }
+
+        /* Formats a number with 3 decimals. */
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.3f", value);
+        }
+    }
+}
@@ -0,0 +1,508 @@
+// Tsogkas Evangelos 3150185
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes requests to the nodes of a cluster, with a low level rest client per node.
+ *
+ * Each node is chosen by the routing policy among the healthy nodes: round robin, the node with the least
+ * outstanding requests, or the node with the lowest latency weighted by its outstanding requests (the moving
+ * average of its latency times its outstanding requests plus one). A node is ejected for a while when a request to
+ * it fails or when its average latency is many times the latency of the best node, as during a long gc pause.
+ * The ejection time doubles with every consecutive ejection. A request that fails on a node is retried on another.
+ *
+ * Searches can be hedged: if a search has not been answered after the given percentile of the recent latencies,
+ * it is sent to a second node too and the first response is used.
+ *
+ * The nodes can be discovered by sniffing the http addresses of the nodes of the cluster periodically.
+ */
+public class NodeRouter implements Closeable {
+
+    /**
+     * The way a node is chosen for a request.
+     */
+    public enum Policy {
+        ROUND_ROBIN, LEAST_OUTSTANDING, LATENCY_WEIGHTED
+    }
+
+    private static final double EWMA_WEIGHT = 0.2; //weight of the latest latency in the moving average
+    private static final double OUTLIER_FACTOR = 5; //a node this many times slower than the best one is ejected
+    private static final long OUTLIER_MIN_MICROS = 10000; //nodes faster than this are never ejected for latency
+    private static final long EJECTION_MILLIS = 1000; //time a node is ejected for the first time
+    private static final long MAX_EJECTION_MILLIS = 60000;
+    private static final int HEDGE_WINDOW_SECONDS = 10; //the hedge delay is a percentile of this many seconds
+    private static final int HEDGE_MIN_SAMPLES = 20; //searches are not hedged until there are this many latencies
+    private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final Policy policy;
+    private final String scheme;
+    private final RestClientBuilder.HttpClientConfigCallback httpClientConfig;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile List<Node> nodes = Collections.emptyList();
+    private final Map<HttpHost, Node> retired = new HashMap<>(); //nodes removed by sniffing with requests in flight
+
+    private final ScheduledExecutorService scheduler;
+    private final Recorder latencies = new Recorder(HIGHEST_MICROS, 3);
+    private final Histogram[] window = new Histogram[HEDGE_WINDOW_SECONDS];
+    private int windowSlot;
+    private volatile double hedgePercentile; //0 if searches are not hedged
+    private volatile long hedgeDelayMicros; //0 until there are enough latencies
+
+    private final LongAdder failovers = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    /* A node, its rest client and its health. */
+    private static class Node {
+        final HttpHost host;
+        final RestClient client;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile double ewmaMicros; //0 until the first response after the node was added
+        volatile long ejectedUntil; //time in millis
+        int consecutiveEjections; //guarded by the node
+        boolean probing; //true from an ejection until the first response after it, guarded by the node
+        volatile boolean retired; //true while the node is removed but has requests in flight, set under the router lock
+
+        Node(HttpHost host, RestClient client) {
+            this.host = host;
+            this.client = client;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param hosts The http addresses of the nodes
+     * @param policy The routing policy
+     * @param httpClientConfig Configures the http client of each node, e.g. to count the bytes sent, or null
+     */
+    public NodeRouter(HttpHost[] hosts, Policy policy, RestClientBuilder.HttpClientConfigCallback httpClientConfig) {
+        if (hosts.length == 0) throw new IllegalArgumentException("No hosts");
+        this.policy = policy;
+        this.scheme = hosts[0].getSchemeName();
+        this.httpClientConfig = httpClientConfig;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "node-router");
+            thread.setDaemon(true);
+            return thread;
+        });
+        setHosts(Arrays.asList(hosts));
+        scheduler.scheduleAtFixedRate(this::updateHedgeDelay, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Parses a list of nodes.
+     * @param nodes The nodes as 'host:port' or 'scheme://host:port', separated by commas
+     * @return The http addresses of the nodes
+     */
+    public static HttpHost[] parseHosts(String nodes) {
+        ArrayList<HttpHost> hosts = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            node = node.trim();
+            if (!node.isEmpty()) hosts.add(HttpHost.create(node.contains("://") ? node : "http://" + node));
+        }
+        return hosts.toArray(new HttpHost[0]);
+    }
+
+    /**
+     * Enables or disables hedged searches.
+     * @param percentile The percentile of the recent latencies after which a search is sent to a second node, e.g.
+     *                   95, or 0 to not hedge searches
+     */
+    public void setHedging(double percentile) {
+        hedgePercentile = percentile;
+    }
+
+    /**
+     * Discovers the nodes of the cluster now and then periodically, from the http addresses they publish.
+     * @param intervalMillis The time between two discoveries
+     */
+    public void startSniffing(long intervalMillis) {
+        scheduler.scheduleWithFixedDelay(this::sniff, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a request to a node chosen by the routing policy and waits for the response. If the request fails on
+     * a node (connection error, status 429 or 5xx) it is retried on another node.
+     * @param method The http method
+     * @param endpoint The path of the request
+     * @param params The query string parameters
+     * @param entity The body of the request or null. It must be repeatable
+     * @param hedge True to hedge the request if hedging is enabled. Only for requests that can be repeated safely.
+     *              The hedge delay is a percentile of the latencies of these requests only
+     * @return The first successful response
+     */
+    public Response performRequest(String method, String endpoint, Map<String, String> params, HttpEntity entity, boolean hedge) throws IOException {
+        Call call = new Call(method, endpoint, params, entity, hedge);
+        if (!call.send(false)) throw new IOException("No nodes");
+        try {
+            long delay = hedge && hedgePercentile > 0 ? hedgeDelayMicros : 0;
+            if (delay > 0) {
+                try {
+                    return call.result.get(delay, TimeUnit.MICROSECONDS);
+                }
+                catch (TimeoutException e) {
+                    call.hedge();
+                }
+            }
+            return call.result.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * @return The number of requests that were retried on another node
+     */
+    public long getFailovers() {
+        return failovers.sum();
+    }
+
+    /**
+     * @return The number of times a node was ejected
+     */
+    public long getEjections() {
+        return ejections.sum();
+    }
+
+    /**
+     * @return The number of hedged searches
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return The number of hedged searches that were answered first by the second node
+     */
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    /**
+     * @return The current delay of hedged searches in microseconds, 0 if there are not enough latencies yet
+     */
+    public long getHedgeDelayMicros() {
+        return hedgeDelayMicros;
+    }
+
+    /**
+     * Returns the state of the nodes and the counters of the router, one line per node.
+     * @return The status
+     */
+    public String status() {
+        StringBuilder status = new StringBuilder();
+        status.append("Routing: ").append(policy.name().toLowerCase()).append(", failovers ").append(getFailovers())
+                .append(", ejections ").append(getEjections()).append(", hedges ").append(getHedges())
+                .append(" (won ").append(getHedgesWon()).append(')');
+        long now = System.currentTimeMillis();
+        for (Node node : nodes) {
+            status.append("\n\t").append(node.host.toHostString())
+                    .append(" : latency ").append(String.format(Locale.ROOT, "%.2f", node.ewmaMicros / 1000)).append(" ms")
+                    .append(", outstanding ").append(node.outstanding.get());
+            if (node.ejectedUntil > now) status.append(", ejected for ").append(node.ejectedUntil - now).append(" ms");
+        }
+        return status.toString();
+    }
+
+    /**
+     * Stops sniffing and closes the rest clients of the nodes.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            for (Node node : nodes) node.client.close();
+            for (Node node : retired.values()) node.client.close();
+            retired.clear();
+        }
+    }
+
+    /* Replaces the nodes. The nodes that remain keep their health. The removed ones are closed once their requests
+       in flight complete, and a node that comes back before that is reused. */
+    private synchronized void setHosts(Collection<HttpHost> hosts) {
+        Map<HttpHost, Node> current = new HashMap<>();
+        for (Node node : nodes) current.put(node.host, node);
+        List<Node> updated = new ArrayList<>(hosts.size());
+        for (HttpHost host : new LinkedHashSet<>(hosts)) {
+            Node node = current.remove(host);
+            if (node == null && (node = retired.remove(host)) != null) node.retired = false;
+            if (node == null) {
+                RestClientBuilder builder = RestClient.builder(host);
+                if (httpClientConfig != null) builder.setHttpClientConfigCallback(httpClientConfig);
+                node = new Node(host, builder.build());
+            }
+            updated.add(node);
+        }
+        for (Node node : current.values()) {
+            node.retired = true;
+            retired.put(node.host, node);
+        }
+        if (!nodes.isEmpty() && (!current.isEmpty() || updated.size() != nodes.size())) {
+            System.out.println("Nodes: " + updated.size() + " (" + current.size() + " removed)");
+        }
+        nodes = Collections.unmodifiableList(updated);
+        closeRetired();
+    }
+
+    /* Closes the removed nodes that have no requests in flight. */
+    private synchronized void closeRetired() {
+        Iterator<Node> iterator = retired.values().iterator();
+        while (iterator.hasNext()) {
+            Node node = iterator.next();
+            if (node.outstanding.get() > 0) continue;
+            iterator.remove();
+            try {
+                node.client.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /* Called when a request to a node completed. If the node was removed and this was its last request, closes it
+       from the thread of the router, since a rest client can not be closed from its own callbacks. */
+    private void onCompleted(Node node) {
+        if (node.outstanding.decrementAndGet() > 0 || !node.retired) return;
+        try {
+            scheduler.execute(this::closeRetired);
+        }
+        catch (RejectedExecutionException e) {
+            //the router is closed and so is the node
+        }
+    }
+
+    /* Chooses a node that was not tried yet. If all such nodes are ejected, the one whose ejection ends first,
+       unless only healthy nodes are wanted. Returns null if there is no such node. */
+    private Node select(Set<Node> tried, boolean healthyOnly) {
+        List<Node> nodes = this.nodes;
+        int n = nodes.size();
+        int offset = next.getAndIncrement();
+        long now = System.currentTimeMillis();
+        Node best = null, soonest = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Node node = nodes.get(Math.floorMod(offset + i, n));
+            if (tried.contains(node)) continue;
+            if (node.ejectedUntil > now) {
+                if (soonest == null || node.ejectedUntil < soonest.ejectedUntil) soonest = node;
+                continue;
+            }
+            if (policy == Policy.ROUND_ROBIN) return node;
+            double score = policy == Policy.LEAST_OUTSTANDING ? node.outstanding.get()
+                    : (node.outstanding.get() + 1) * node.ewmaMicros;
+            if (score < bestScore) {
+                best = node;
+                bestScore = score;
+            }
+        }
+        return best != null || healthyOnly ? best : soonest;
+    }
+
+    /* Updates the latency of a node after a response. Ejects it if it is an outlier. The first response after an
+       ejection replaces the latency the node was ejected with, so a node that recovered is not ejected again. */
+    private void onResponse(Node node, long micros, boolean hedgeable) {
+        if (hedgeable) latencies.recordValue(Math.min(micros, HIGHEST_MICROS));
+        synchronized (node) {
+            boolean probe = node.probing && node.ejectedUntil <= System.currentTimeMillis();
+            if (probe) node.probing = false;
+            node.ewmaMicros = node.ewmaMicros == 0 || probe ? micros : node.ewmaMicros + EWMA_WEIGHT * (micros - node.ewmaMicros);
+            if (isOutlier(node)) eject(node);
+            else node.consecutiveEjections = 0;
+        }
+    }
+
+    /* Returns true if the latency of a node is many times the latency of the best healthy node. */
+    private boolean isOutlier(Node node) {
+        if (node.ewmaMicros < OUTLIER_MIN_MICROS) return false;
+        long now = System.currentTimeMillis();
+        double best = Double.MAX_VALUE;
+        for (Node other : nodes) {
+            if (other != node && other.ejectedUntil <= now && other.ewmaMicros > 0) best = Math.min(best, other.ewmaMicros);
+        }
+        return best != Double.MAX_VALUE && node.ewmaMicros > OUTLIER_FACTOR * best;
+    }
+
+    /* Ejects a node, unless it is already ejected by a request that failed at the same time. It keeps its latency,
+       but at least the mean latency of the healthy nodes, until the first response after the ejection, so when the
+       ejection ends it is probed with its share of the requests instead of looking idle and getting them all. */
+    private void eject(Node node) {
+        synchronized (node) {
+            long now = System.currentTimeMillis();
+            if (node.ejectedUntil > now) return;
+            long millis = Math.min(EJECTION_MILLIS << Math.min(node.consecutiveEjections, 16), MAX_EJECTION_MILLIS);
+            node.ejectedUntil = now + millis;
+            node.consecutiveEjections++;
+            node.probing = true;
+            double sum = 0;
+            int healthy = 0;
+            for (Node other : nodes) {
+                if (other != node && other.ejectedUntil <= now && other.ewmaMicros > 0) {
+                    sum += other.ewmaMicros;
+                    healthy++;
+                }
+            }
+            if (healthy > 0) node.ewmaMicros = Math.max(node.ewmaMicros, sum / healthy);
+        }
+        ejections.increment();
+    }
+
+    /* Returns true if a request that failed with the given exception may succeed on another node. */
+    private static boolean isRetryable(Exception e) {
+        if (!(e instanceof ResponseException)) return e instanceof IOException;
+        int status = ((ResponseException) e).getResponse().getStatusLine().getStatusCode();
+        return status == 429 || status >= 500;
+    }
+
+    /* Sets the hedge delay to the percentile of the latencies of the last seconds. */
+    private void updateHedgeDelay() {
+        window[windowSlot] = latencies.getIntervalHistogram(window[windowSlot]);
+        windowSlot = (windowSlot + 1) % window.length;
+        double percentile = hedgePercentile;
+        if (percentile <= 0) return;
+        Histogram recent = new Histogram(HIGHEST_MICROS, 3);
+        for (Histogram histogram : window) {
+            if (histogram != null) recent.add(histogram);
+        }
+        hedgeDelayMicros = recent.getTotalCount() >= HEDGE_MIN_SAMPLES ? Math.max(1, recent.getValueAtPercentile(percentile)) : 0;
+    }
+
+    /* Replaces the nodes with the nodes of the cluster that publish an http address. */
+    private void sniff() {
+        try {
+            Map<String, String> params = new HashMap<>();
+            params.put("filter_path", "nodes.*.http.publish_address");
+            Response response = performRequest("GET", "/_nodes/http", params, null, false);
+            JSONObject nodes = (JSONObject) ((JSONObject) new JSONParser().parse(EntityUtils.toString(response.getEntity()))).get("nodes");
+            ArrayList<HttpHost> hosts = new ArrayList<>();
+            if (nodes != null) {
+                for (Object node : nodes.values()) {
+                    JSONObject http = (JSONObject) ((JSONObject) node).get("http");
+                    if (http == null || http.get("publish_address") == null) continue;
+                    //the address is 'ip:port' or 'hostname/ip:port'
+                    String address = (String) http.get("publish_address");
+                    address = address.substring(address.lastIndexOf('/') + 1);
+                    int colon = address.lastIndexOf(':');
+                    String host = address.substring(0, colon).replace("[", "").replace("]", "");
+                    hosts.add(new HttpHost(host, Integer.parseInt(address.substring(colon + 1)), scheme));
+                }
+            }
+            if (!hosts.isEmpty()) setHosts(hosts);
+        }
+        catch (IOException | ParseException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* A request and the nodes it was sent to. */
+    private class Call {
+        final String method, endpoint;
+        final Map<String, String> params;
+        final HttpEntity entity;
+        final boolean hedgeable;
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final Set<Node> tried = new HashSet<>();
+        Node first;
+        boolean hedged;
+        int inFlight;
+
+        Call(String method, String endpoint, Map<String, String> params, HttpEntity entity, boolean hedgeable) {
+            this.method = method;
+            this.endpoint = endpoint;
+            this.params = params;
+            this.entity = entity;
+            this.hedgeable = hedgeable;
+        }
+
+        /* Sends the request to a second healthy node while the first one is still in flight. */
+        synchronized void hedge() {
+            if (!result.isDone() && send(true)) {
+                hedged = true;
+                hedges.increment();
+            }
+        }
+
+        /* Sends the request to the next node. Returns false if there is no node to send it to. */
+        synchronized boolean send(boolean healthyOnly) {
+            final Node node = select(tried, healthyOnly);
+            if (node == null) return false;
+            if (first == null) first = node;
+            tried.add(node);
+            inFlight++;
+            node.outstanding.incrementAndGet();
+            final long start = System.nanoTime();
+            node.client.performRequestAsync(method, endpoint, params, entity, new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    onCompleted(node);
+                    onResponse(node, (System.nanoTime() - start) / 1000, hedgeable);
+                    synchronized (Call.this) {
+                        inFlight--;
+                        if (hedged && node != first && !result.isDone()) hedgesWon.increment();
+                    }
+                    result.complete(response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    onCompleted(node);
+                    boolean retryable = isRetryable(e);
+                    if (retryable) eject(node);
+                    synchronized (Call.this) {
+                        inFlight--;
+                        if (result.isDone()) return;
+                        if (retryable && send(false)) {
+                            failovers.increment();
+                            return;
+                        }
+                        if (inFlight == 0) result.completeExceptionally(e);
+                    }
+                }
+            });
+            return true;
+        }
+    }
+}
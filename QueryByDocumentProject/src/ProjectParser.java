@@ -0,0 +1,110 @@
+// Tsogkas Evangelos 3150185
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Parses the projects of an xml file of the collection with a streaming (StAX) parser.
+ *
+ * Like the DOM parsing of {@link CreateFilesMain}, the value of a field is the text content of the first element
+ * with its name inside the project, so fields of nested elements (e.g. programmes) are ignored.
+ * An instance is not thread safe. Use one parser per thread.
+ */
+public class ProjectParser {
+
+    private static final String[] FIELDS = {"rcn", "acronym", "objective", "title", "identifier"};
+
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+    private final StringBuilder content = new StringBuilder();
+
+    /**
+     * Parses the projects of an xml file.
+     * @param file The xml file
+     * @return The projects of the file in document order
+     */
+    public ArrayList<ProjectRecord> parse(File file) throws IOException, XMLStreamException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return parse(in);
+        }
+    }
+
+    /**
+     * Parses the projects of an xml stream.
+     * @param in The xml stream
+     * @return The projects of the stream in document order
+     */
+    public ArrayList<ProjectRecord> parse(InputStream in) throws XMLStreamException {
+        ArrayList<ProjectRecord> projects = new ArrayList<>(1);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            String[] values = new String[FIELDS.length];
+            int projectDepth = -1, depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if (projectDepth < 0) {
+                        if (name.equals("project")) {
+                            projectDepth = depth;
+                            for (int i = 0; i < values.length; i++) values[i] = null;
+                        }
+                    }
+                    else {
+                        int field = fieldIndex(name);
+                        if (field >= 0 && values[field] == null) {
+                            values[field] = readTextContent(reader);
+                            depth--;
+                        }
+                    }
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == projectDepth) {
+                        projectDepth = -1;
+                        if (values[0] != null && values[1] != null && values[2] != null && values[3] != null && values[4] != null) {
+                            projects.add(new ProjectRecord(values[0], values[1], values[3] + "    " + values[2], values[4]));
+                        }
+                        else System.out.println("Skipped project with missing fields");
+                    }
+                    depth--;
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return projects;
+    }
+
+    /* Returns the index of the field with the given element name or -1. */
+    private static int fieldIndex(String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /* Reads the text content of the current element, including the text of its children, up to its end tag. */
+    private String readTextContent(XMLStreamReader reader) throws XMLStreamException {
+        content.setLength(0);
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+            else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                content.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,50 @@
+// Tsogkas Evangelos 3150185
+
+import org.json.JSONObject;
+
+/**
+ * A project of the collection with the fields that are indexed.
+ */
+public class ProjectRecord {
+
+    public final String rcn;
+    public final String acronym;
+    public final String text;
+    public final String identifier;
+
+    /**
+     * Constructor.
+     * @param rcn The rcn of the project, used as index id
+     * @param acronym The acronym of the project
+     * @param text The title and objective of the project
+     * @param identifier The identifier of the project
+     */
+    public ProjectRecord(String rcn, String acronym, String text, String identifier) {
+        this.rcn = rcn;
+        this.acronym = acronym;
+        this.text = text;
+        this.identifier = identifier;
+    }
+
+    /**
+     * Returns the project as a json source document.
+     * @return The json string
+     */
+    public String toSource() {
+        JSONObject jproject = new JSONObject();
+        jproject.put("acronym", acronym);
+        jproject.put("text", text);
+        jproject.put("identifier", identifier);
+        return jproject.toString();
+    }
+
+    /**
+     * Returns the action and source lines of the project for the json file of elastic search.
+     * @return The two lines, each terminated by a newline
+     */
+    public String toBulkLines() {
+        JSONObject jindex = new JSONObject();
+        jindex.put("index", new JSONObject().put("_id", rcn));
+        return jindex.toString() + "\n" + toSource() + "\n";
+    }
+}
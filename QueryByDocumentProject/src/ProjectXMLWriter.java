@@ -0,0 +1,61 @@
+// Tsogkas Evangelos 3150185
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+
+/**
+ * Writes xml files with the "text" element, in the same format as {@link CreateFilesMain}.
+ * The document builder and transformer are created once and reused. An instance is not thread safe.
+ */
+public class ProjectXMLWriter {
+
+    private final DocumentBuilder builder;
+    private final Transformer transformer;
+
+    /**
+     * Constructor. Creates the document builder and the transformer.
+     */
+    public ProjectXMLWriter() throws ParserConfigurationException, TransformerConfigurationException {
+        builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+    }
+
+    /**
+     * Writes a single xml file with the "text" element.
+     * @param project The project
+     * @param file The xml file
+     */
+    public void write(ProjectRecord project, File file) throws TransformerException {
+        Document doc = builder.newDocument();
+
+        Element root = doc.createElement("project");
+        doc.appendChild(root);
+        appendElement(doc, root, "rcn", project.rcn);
+        appendElement(doc, root, "acronym", project.acronym);
+        appendElement(doc, root, "text", project.text);
+        appendElement(doc, root, "identifier", project.identifier);
+
+        transformer.transform(new DOMSource(doc), new StreamResult(file));
+    }
+
+    /* Appends an element with the given text content. */
+    private static void appendElement(Document doc, Element parent, String name, String content) {
+        Element element = doc.createElement(name);
+        element.setTextContent(content);
+        parent.appendChild(element);
+    }
+}
@@ -0,0 +1,213 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of query replies with size and time based eviction.
+ *
+ * The least recently used entry is evicted when the cache is full and entries expire 'ttlMillis' after they were
+ * added. The cache can be saved to a file and loaded again, together with a fingerprint of the index. Entries are
+ * loaded only if the index still has the same fingerprint.
+ * The cached results are copies of the results that are added and must not be modified by the callers.
+ */
+public class QueryCache {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final long ttlMillis;
+    private final LinkedHashMap<String, CachedReplies> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /* The replies of a query and the time they were added. */
+    private static class CachedReplies {
+        final long created;
+        final QueryResults replies;
+
+        CachedReplies(long created, QueryResults replies) {
+            this.created = created;
+            this.replies = replies;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param maxEntries The maximum number of entries
+     * @param ttlMillis The time to live of an entry in milliseconds
+     */
+    public QueryCache(final int maxEntries, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        entries = new LinkedHashMap<String, CachedReplies>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedReplies> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Creates the key of a query. The query text is normalized by trimming it and collapsing whitespace.
+     * @param indexName The index name
+     * @param type The type of query
+     * @param parameters The parameters of the query that affect the replies (e.g. k)
+     * @param query The query text
+     * @return The key
+     */
+    public static String key(String indexName, QueryRequest.Type type, String parameters, String query) {
+        StringBuilder key = new StringBuilder(indexName.length() + parameters.length() + query.length() + 16);
+        key.append(indexName).append('\u0000').append(type).append('\u0000').append(parameters).append('\u0000');
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+            }
+            else {
+                if (space && key.charAt(key.length() - 1) != '\u0000') key.append(' ');
+                space = false;
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached replies of a query.
+     * @param key The key of the query
+     * @return The replies or null if they are not cached or expired
+     */
+    public synchronized QueryResults get(String key) {
+        CachedReplies entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.created > ttlMillis) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.replies;
+    }
+
+    /**
+     * Adds a copy of the replies of a query.
+     * @param key The key of the query
+     * @param replies The replies
+     */
+    public synchronized void put(String key, QueryResults replies) {
+        entries.put(key, new CachedReplies(System.currentTimeMillis(), replies.copy()));
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return The number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Saves the entries that have not expired to a file.
+     * @param file The file
+     * @param fingerprint The fingerprint of the index
+     */
+    public synchronized void save(File file, String fingerprint) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        long now = System.currentTimeMillis();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, fingerprint);
+            int count = 0;
+            for (CachedReplies entry : entries.values()) {
+                if (now - entry.created <= ttlMillis) count++;
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, CachedReplies> e : entries.entrySet()) {
+                CachedReplies entry = e.getValue();
+                if (now - entry.created > ttlMillis) continue;
+                writeString(out, e.getKey());
+                out.writeLong(entry.created);
+                out.writeInt(entry.replies.size());
+                for (int j = 0; j < entry.replies.size(); j++) {
+                    out.writeInt(entry.replies.id(j));
+                    out.writeFloat(entry.replies.score(j));
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) throw new IOException("Cannot rename '" + tmp + "' to '" + file + "'");
+        }
+    }
+
+    /**
+     * Loads the entries of a file, if it was saved with the same fingerprint of the index.
+     * @param file The file
+     * @param fingerprint The current fingerprint of the index
+     * @return The number of entries loaded
+     */
+    public synchronized int load(File file, String fingerprint) throws IOException {
+        if (!file.exists()) return 0;
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !readString(in).equals(fingerprint)) return 0;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                long created = in.readLong();
+                int size = in.readInt();
+                QueryResults replies = new QueryResults(size);
+                for (int j = 0; j < size; j++) {
+                    replies.add(in.readInt(), in.readFloat());
+                }
+                if (now - created <= ttlMillis) {
+                    entries.put(key, new CachedReplies(created, replies));
+                    loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /* Writes a string of any length as UTF-8. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /* Reads a string written by writeString. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
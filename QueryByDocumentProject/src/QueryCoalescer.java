@@ -0,0 +1,207 @@
+// Tsogkas Evangelos 3150185
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link SearchBackend} in front of another one that sends duplicate queries to it only once.
+ *
+ * Two queries are duplicates if they are of the same type and the texts they send have the same canonical key (see
+ * {@link QueryNormalizer#canonicalKey}), or refer to the same indexed document. The queries in flight are kept in a
+ * map from their key to the future of their replies: a query whose duplicate is in flight waits for its replies
+ * instead of sending a request, and each caller gets its own copy of them. The duplicates of a batch are sent once
+ * as well, and a batch waits for the queries that other threads have already sent. Nothing is kept after the replies
+ * arrive, use the cache of the {@link Client} for that.
+ *
+ * The other operations go to the backend unchanged.
+ */
+public class QueryCoalescer implements SearchBackend {
+
+    private final SearchBackend backend;
+    private final ConcurrentHashMap<String, CompletableFuture<QueryResults>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder queries = new LongAdder(); //queries received
+    private final LongAdder coalesced = new LongAdder(); //queries answered by the replies of a duplicate
+
+    /**
+     * Constructor.
+     * @param backend The backend that runs the queries
+     */
+    public QueryCoalescer(SearchBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * @return The number of queries received
+     */
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    /**
+     * @return The number of queries that were not sent to the backend, because a duplicate was sent
+     */
+    public long getSaved() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return The number of queries received and saved
+     */
+    public String report() {
+        return "{\n\tqueries : " + getQueries() + "\n\tsent : " + (getQueries() - getSaved()) + "\n\tsaved : " + getSaved() + "\n}";
+    }
+
+    @Override
+    public boolean indexExists() {
+        return backend.indexExists();
+    }
+
+    @Override
+    public void createIndex() {
+        backend.createIndex();
+    }
+
+    @Override
+    public void insertData() {
+        backend.insertData();
+    }
+
+    @Override
+    public QueryResults fullTextQuery(String query) {
+        QueryResults replies = new QueryResults();
+        fullTextQuery(query, replies);
+        return replies;
+    }
+
+    @Override
+    public void fullTextQuery(String query, QueryResults replies) {
+        search(new QueryRequest(QueryRequest.Type.FULL_TEXT, query), replies);
+    }
+
+    @Override
+    public QueryResults MLTQuery(String query) {
+        QueryResults replies = new QueryResults();
+        MLTQuery(query, replies);
+        return replies;
+    }
+
+    @Override
+    public void MLTQuery(String query, QueryResults replies) {
+        search(new QueryRequest(QueryRequest.Type.MLT, query), replies);
+    }
+
+    @Override
+    public ArrayList<QueryResults> batchQuery(List<QueryRequest> queries, int batchSize) {
+        this.queries.add(queries.size());
+        ArrayList<QueryResults> replies = new ArrayList<>(queries.size());
+        HashMap<String, Integer> first = new HashMap<>(); //by key, the index of the first query of the batch
+        HashMap<String, CompletableFuture<QueryResults>> owned = new HashMap<>(); //keys this batch sends, by key
+        HashMap<String, CompletableFuture<QueryResults>> joined = new HashMap<>(); //keys other threads send, by key
+        ArrayList<QueryRequest> sent = new ArrayList<>();
+        ArrayList<String> sentKeys = new ArrayList<>();
+        String[] keys = new String[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            keys[i] = key(queries.get(i));
+            replies.add(null);
+            if (first.putIfAbsent(keys[i], i) != null) {
+                coalesced.increment();
+                continue;
+            }
+            CompletableFuture<QueryResults> future = new CompletableFuture<>();
+            CompletableFuture<QueryResults> existing = inFlight.putIfAbsent(keys[i], future);
+            if (existing != null) {
+                coalesced.increment();
+                joined.put(keys[i], existing);
+                continue;
+            }
+            owned.put(keys[i], future);
+            sent.add(queries.get(i));
+            sentKeys.add(keys[i]);
+        }
+
+        HashMap<String, QueryResults> results = new HashMap<>();
+        try {
+            ArrayList<QueryResults> sentReplies = sent.isEmpty() ? new ArrayList<>() : backend.batchQuery(sent, batchSize);
+            for (int i = 0; i < sentKeys.size(); i++) {
+                results.put(sentKeys.get(i), sentReplies.get(i));
+                owned.get(sentKeys.get(i)).complete(sentReplies.get(i).copy());
+            }
+        }
+        catch (RuntimeException e) {
+            for (CompletableFuture<QueryResults> future : owned.values()) future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            for (String key : sentKeys) inFlight.remove(key, owned.get(key));
+        }
+        for (Map.Entry<String, CompletableFuture<QueryResults>> entry : joined.entrySet()) {
+            results.put(entry.getKey(), await(entry.getValue()));
+        }
+
+        //the first query of a key gets the replies and the duplicates get copies
+        for (int i = 0; i < queries.size(); i++) {
+            QueryResults result = results.get(keys[i]);
+            boolean sentByThis = first.get(keys[i]) == i && owned.containsKey(keys[i]);
+            replies.set(i, sentByThis ? result : result.copy());
+        }
+        return replies;
+    }
+
+    @Override
+    public void deleteIndex() {
+        backend.deleteIndex();
+    }
+
+    @Override
+    public void close() {
+        backend.close();
+    }
+
+    /* Runs a query, or waits for the replies of its duplicate in flight, and copies the replies. */
+    private void search(QueryRequest query, QueryResults replies) {
+        queries.increment();
+        String key = key(query);
+        CompletableFuture<QueryResults> future = new CompletableFuture<>();
+        CompletableFuture<QueryResults> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            replies.copyFrom(await(existing));
+            return;
+        }
+        try {
+            if (query.type == QueryRequest.Type.MLT) backend.MLTQuery(query.text, replies);
+            else backend.fullTextQuery(query.text, replies);
+            future.complete(replies.copy());
+        }
+        catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /* Returns the key of a query, the same for its duplicates. */
+    private static String key(QueryRequest query) {
+        if (query.isByDocument()) return query.type + "#" + query.rcn;
+        return query.type + ":" + QueryNormalizer.canonicalKey(query.text);
+    }
+
+    /* Waits for the replies of a duplicate, rethrowing its failure. */
+    private static QueryResults await(CompletableFuture<QueryResults> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+}
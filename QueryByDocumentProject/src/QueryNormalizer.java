@@ -0,0 +1,106 @@
+// Tsogkas Evangelos 3150185
+
+import java.util.Arrays;
+
+/**
+ * Normalizes query texts before they are sent to the cluster, and reduces them to a canonical key so that queries
+ * that the cluster would answer the same way are recognized as duplicates, see {@link QueryCoalescer}.
+ *
+ * The reserved characters are those of the original regular expression '[+-=&amp;|&gt;&lt;!(){}^"~*?:\[\]\\/]' of
+ * the queries, which the query parser of the cluster would otherwise interpret. Note that '+-=' in the expression is
+ * the range from '+' to '=', so digits, ',', '.', ';' and '&lt;' are replaced too, exactly as before. The text is
+ * normalized in a single pass over its characters, with a lookup table instead of a regular expression: reserved
+ * characters and whitespace become a single space and the result is trimmed.
+ *
+ * The canonical key of a query is its sorted lower case terms, each term once preceded by its number of occurrences
+ * if it occurs more than once (e.g. 'case 2*crash driver'). The terms are split at whitespace only and keep every
+ * other character, reserved or not, since the key is built from the text as it is sent, which need not be
+ * normalized (e.g. the extracted phrases): 'Horizon 2020' and 'Horizon 2019' have different keys. Queries with the
+ * same terms in another order, case or spacing have the same key. Full text (match) and MLT queries score by the
+ * terms and their frequencies and not by their order, so they have the same replies.
+ */
+public final class QueryNormalizer {
+
+    private static final boolean[] RESERVED = new boolean[128]; //by character, true if it is replaced by a space
+
+    static {
+        for (char ch = '+'; ch <= '='; ch++) RESERVED[ch] = true;
+        for (char ch : "&|><!(){}^\"~*?:[]\\/".toCharArray()) RESERVED[ch] = true;
+    }
+
+    private QueryNormalizer() {
+    }
+
+    /**
+     * Normalizes a query text: replaces the reserved characters with spaces, collapses the whitespace and trims it.
+     * @param text The text
+     * @return The normalized text
+     */
+    public static String normalize(String text) {
+        return normalize(text, 0);
+    }
+
+    /**
+     * Normalizes the end of a query text, e.g. a line of 'input/testingQueries.txt' after its query id.
+     * @param text The text
+     * @param from The index of the first character to normalize
+     * @return The normalized text
+     */
+    public static String normalize(String text, int from) {
+        char[] chars = new char[Math.max(text.length() - from, 0)];
+        return new String(chars, 0, normalize(text, from, chars, false));
+    }
+
+    /**
+     * Returns the canonical key of a query text, its sorted terms with their number of occurrences.
+     * @param text The text as it is sent
+     * @return The key
+     */
+    public static String canonicalKey(String text) {
+        char[] chars = new char[text.length()];
+        int length = normalize(text, 0, chars, true);
+        if (length == 0) return "";
+
+        String[] terms = new String[16];
+        int count = 0;
+        for (int start = 0, end; start < length; start = end + 1) {
+            end = start;
+            while (end < length && chars[end] != ' ') end++;
+            if (count == terms.length) terms = Arrays.copyOf(terms, count * 2);
+            terms[count++] = new String(chars, start, end - start);
+        }
+        Arrays.sort(terms, 0, count);
+
+        StringBuilder key = new StringBuilder(length + 8);
+        for (int i = 0; i < count; ) {
+            int j = i + 1;
+            while (j < count && terms[j].equals(terms[i])) j++;
+            if (key.length() > 0) key.append(' ');
+            if (j - i > 1) key.append(j - i).append('*');
+            key.append(terms[i]);
+            i = j;
+        }
+        return key.toString();
+    }
+
+    /* Writes the normalized text to chars. For a key only the whitespace is collapsed and the text is in lower case.
+       Returns the number of characters written. */
+    private static int normalize(String text, int from, char[] chars, boolean key) {
+        int length = 0;
+        boolean space = true; //true after a space or at the start, so spaces are collapsed and leading ones dropped
+        for (int i = from; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch < 128 ? (!key && RESERVED[ch]) || ch <= ' ' : Character.isWhitespace(ch)) {
+                if (!space) {
+                    chars[length++] = ' ';
+                    space = true;
+                }
+            }
+            else {
+                chars[length++] = key ? Character.toLowerCase(ch) : ch;
+                space = false;
+            }
+        }
+        return length > 0 && chars[length - 1] == ' ' ? length - 1 : length;
+    }
+}
@@ -0,0 +1,153 @@
+// Tsogkas Evangelos 3150185
+
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.MoreLikeThisQueryBuilder;
+import org.elasticsearch.index.query.Operator;
+import org.elasticsearch.index.query.QueryBuilders;
+
+/**
+ * The parameters of the full text (match) and MLT queries of a {@link Client}, see
+ * {@link Client#fullTextQuery(String, QueryParameters, QueryResults)} and
+ * {@link Client#MLTQuery(String, QueryParameters, QueryResults)}.
+ *
+ * The defaults are the original parameters of the project: an MLT query of at most 100 terms, with terms that
+ * appear at least once in the text and in one document, matching 10% of them, and a match query of any term.
+ *
+ * The parameters are immutable. Each 'with' method returns a copy with one parameter changed, so the same instance,
+ * like {@link #DEFAULT}, can be shared by any number of threads and configurations.
+ */
+public class QueryParameters {
+
+    /**
+     * The original parameters of the project.
+     */
+    public static final QueryParameters DEFAULT = new QueryParameters(100, 1, 1, "10%", Operator.OR, null);
+
+    private final int maxQueryTerms;
+    private final int minTermFreq;
+    private final int minDocFreq;
+    private final String mltMinimumShouldMatch;
+    private final Operator matchOperator;
+    private final String matchMinimumShouldMatch; //null for the default of the cluster
+
+    private QueryParameters(int maxQueryTerms, int minTermFreq, int minDocFreq, String mltMinimumShouldMatch,
+                            Operator matchOperator, String matchMinimumShouldMatch) {
+        this.maxQueryTerms = maxQueryTerms;
+        this.minTermFreq = minTermFreq;
+        this.minDocFreq = minDocFreq;
+        this.mltMinimumShouldMatch = mltMinimumShouldMatch;
+        this.matchOperator = matchOperator;
+        this.matchMinimumShouldMatch = matchMinimumShouldMatch;
+    }
+
+    /**
+     * @param maxQueryTerms The maximum number of terms of an MLT query
+     * @return A copy of these parameters with the given value
+     */
+    public QueryParameters withMaxQueryTerms(int maxQueryTerms) {
+        return new QueryParameters(maxQueryTerms, minTermFreq, minDocFreq,
+                mltMinimumShouldMatch, matchOperator, matchMinimumShouldMatch);
+    }
+
+    /**
+     * @param minTermFreq The minimum frequency of a term in the 'like' text of an MLT query
+     * @return A copy of these parameters with the given value
+     */
+    public QueryParameters withMinTermFreq(int minTermFreq) {
+        return new QueryParameters(maxQueryTerms, minTermFreq, minDocFreq,
+                mltMinimumShouldMatch, matchOperator, matchMinimumShouldMatch);
+    }
+
+    /**
+     * @param minDocFreq The minimum number of documents of a term of an MLT query
+     * @return A copy of these parameters with the given value
+     */
+    public QueryParameters withMinDocFreq(int minDocFreq) {
+        return new QueryParameters(maxQueryTerms, minTermFreq, minDocFreq,
+                mltMinimumShouldMatch, matchOperator, matchMinimumShouldMatch);
+    }
+
+    /**
+     * @param minimumShouldMatch The terms of an MLT query that a document must match (e.g. "10%" or "3")
+     * @return A copy of these parameters with the given value
+     */
+    public QueryParameters withMltMinimumShouldMatch(String minimumShouldMatch) {
+        return new QueryParameters(maxQueryTerms, minTermFreq, minDocFreq,
+                minimumShouldMatch, matchOperator, matchMinimumShouldMatch);
+    }
+
+    /**
+     * @param operator The operator of the terms of a match query, "or" or "and"
+     * @return A copy of these parameters with the given value
+     */
+    public QueryParameters withMatchOperator(String operator) {
+        return new QueryParameters(maxQueryTerms, minTermFreq, minDocFreq,
+                mltMinimumShouldMatch, Operator.fromString(operator), matchMinimumShouldMatch);
+    }
+
+    /**
+     * @param minimumShouldMatch The terms of a match query that a document must match (e.g. "30%"), or null for
+     *                           the default of the cluster
+     * @return A copy of these parameters with the given value
+     */
+    public QueryParameters withMatchMinimumShouldMatch(String minimumShouldMatch) {
+        return new QueryParameters(maxQueryTerms, minTermFreq, minDocFreq,
+                mltMinimumShouldMatch, matchOperator, minimumShouldMatch);
+    }
+
+    /**
+     * Creates an MLT query on the "text" field with these parameters.
+     * @param likeText The 'like' texts, or null
+     * @param likeItems The 'like' indexed documents, or null
+     * @return The query
+     */
+    public MoreLikeThisQueryBuilder mltQuery(String[] likeText, MoreLikeThisQueryBuilder.Item[] likeItems) {
+        String[] fields = {"text"};
+        return QueryBuilders.moreLikeThisQuery(fields, likeText, likeItems)
+                .maxQueryTerms(maxQueryTerms)
+                .minTermFreq(minTermFreq)
+                .minDocFreq(minDocFreq)
+                .minimumShouldMatch(mltMinimumShouldMatch);
+    }
+
+    /**
+     * Creates a match query on the "text" field with these parameters.
+     * @param query The query text
+     * @return The query
+     */
+    public MatchQueryBuilder matchQuery(String query) {
+        MatchQueryBuilder matchBuilder = QueryBuilders.matchQuery("text", query);
+        if (matchOperator != Operator.OR) matchBuilder.operator(matchOperator);
+        if (matchMinimumShouldMatch != null) matchBuilder.minimumShouldMatch(matchMinimumShouldMatch);
+        return matchBuilder;
+    }
+
+    /**
+     * @return The MLT parameters, as part of a cache key
+     */
+    public String mltKey() {
+        return "maxQueryTerms=" + maxQueryTerms + ",minTermFreq=" + minTermFreq + ",minDocFreq=" + minDocFreq
+                + ",minimumShouldMatch=" + mltMinimumShouldMatch;
+    }
+
+    /**
+     * @return The match parameters, as part of a cache key. Empty for the defaults, so that the keys of the
+     * original queries do not change
+     */
+    public String matchKey() {
+        String key = "";
+        if (matchOperator != Operator.OR) key += ",operator=" + matchOperator.name().toLowerCase();
+        if (matchMinimumShouldMatch != null) key += ",minimumShouldMatch=" + matchMinimumShouldMatch;
+        return key;
+    }
+
+    /**
+     * @param type The type of query
+     * @return The parameters that affect the queries of the type, e.g. "maxQueryTerms=50,minTermFreq=2,..."
+     */
+    public String describe(QueryRequest.Type type) {
+        if (type == QueryRequest.Type.MLT) return mltKey();
+        String key = matchKey();
+        return key.isEmpty() ? "operator=or" : key.substring(1);
+    }
+}
@@ -0,0 +1,117 @@
+// Tsogkas Evangelos 3150185
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reduces a long full text query to its most important terms.
+ *
+ * The query text is sent as an artificial document to the term vectors api of the index, so it is analyzed by the
+ * analyzer of the "text" field, stemmer included, and the terms of the reduced query are terms of the index. The
+ * response has the frequency of each term in the query and its document frequency in the index. Each term is
+ * weighted by BM25: its idf times its saturated frequency in the query. The statistics are those of the shard that
+ * serves the term vectors request, which are the statistics a query_then_fetch search scores with.
+ *
+ * Each query is reduced with a single request and no shared state, so queries are reduced concurrently without
+ * locking.
+ */
+public class QueryReducer {
+
+    private static final float K1 = 1.2f; //term frequency saturation of BM25
+
+    private final RestClient client;
+    private final String indexName;
+    private final int maxTerms;
+    private final AtomicLong lookups = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param client The low level rest client
+     * @param indexName The index with the statistics of the terms
+     * @param maxTerms The maximum number of terms of a reduced query
+     */
+    public QueryReducer(RestClient client, String indexName, int maxTerms) {
+        this.client = client;
+        this.indexName = indexName;
+        this.maxTerms = maxTerms;
+    }
+
+    /**
+     * @return The maximum number of terms of a reduced query
+     */
+    public int getMaxTerms() {
+        return maxTerms;
+    }
+
+    /**
+     * @return The number of term statistics requests made so far
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Reduces a query to its highest weighted terms. Terms that do not appear in the index are dropped.
+     * @param query The query text
+     * @return At most maxTerms terms with their weights, in descending order of weight
+     */
+    public LinkedHashMap<String, Float> reduce(String query) throws IOException {
+        long[] count = new long[1];
+        LinkedHashMap<String, int[]> stats = termStatistics(query, count);
+
+        PriorityQueue<Map.Entry<String, Float>> top = new PriorityQueue<>(maxTerms + 1, Map.Entry.comparingByValue());
+        for (Map.Entry<String, int[]> term : stats.entrySet()) {
+            int tf = term.getValue()[0];
+            int docFreq = term.getValue()[1];
+            //terms that are not in the index have no statistics
+            if (tf <= 0 || docFreq <= 0) continue;
+            float idf = (float) Math.log(1 + (count[0] - docFreq + 0.5) / (docFreq + 0.5));
+            float weight = idf * tf * (K1 + 1) / (tf + K1);
+            top.add(new AbstractMap.SimpleEntry<>(term.getKey(), weight));
+            if (top.size() > maxTerms) top.poll();
+        }
+
+        ArrayList<Map.Entry<String, Float>> sorted = new ArrayList<>(top);
+        sorted.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+        LinkedHashMap<String, Float> terms = new LinkedHashMap<>();
+        for (Map.Entry<String, Float> term : sorted) {
+            terms.put(term.getKey(), term.getValue());
+        }
+        return terms;
+    }
+
+    /* Analyzes the query with the index analyzer and returns its terms, each with {frequency in the query, document
+       frequency}. Sets count[0] to the number of documents with the field. */
+    private LinkedHashMap<String, int[]> termStatistics(String query, long[] count) throws IOException {
+        XContentBuilder body = XContentFactory.jsonBuilder();
+        body.startObject();
+        body.startObject("doc").field("text", query).endObject();
+        body.array("fields", "text");
+        body.field("positions", false);
+        body.field("offsets", false);
+        body.field("payloads", false);
+        body.field("term_statistics", true);
+        body.field("field_statistics", true);
+        body.endObject();
+
+        Response response = client.performRequest("POST", "/" + indexName + "/_doc/_termvectors",
+                Collections.emptyMap(), new StringEntity(body.bytes().utf8ToString(), ContentType.APPLICATION_JSON));
+        lookups.incrementAndGet();
+        try (InputStream in = response.getEntity().getContent()) {
+            return TermVectorsParser.parse(in, count);
+        }
+    }
+}
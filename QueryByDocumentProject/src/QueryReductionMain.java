@@ -0,0 +1,101 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+/**
+ * Benchmark of query reduction. Runs the same full text queries whole and reduced to their top N terms for several
+ * values of N, and prints the latency of each run along with the overlap of its replies with the replies of the
+ * whole queries, as a measure of how much retrieval quality is kept.
+ *
+ * The query cache is not used, and each run is preceded by a warm up run that also fetches the term statistics,
+ * so the latencies are those of the searches alone.
+ */
+public class QueryReductionMain {
+
+    private static final int[] QUERY_TERMS = {5, 10, 20, 50, 100}; //values of N, 0 is the whole query
+
+    public static void main (String args[]) {
+        Scanner scanner = new Scanner(System.in);
+        System.out.print("Insert index name: ");
+        String indexName = scanner.nextLine();
+        System.out.print("Insert the path of the directory with the extracted phrases files (empty for 'input/testingQueries.txt'): ");
+        String dir = scanner.nextLine().trim();
+
+        ArrayList<String> queries;
+        if (dir.isEmpty()) queries = ElasticSearchMain.readQueries();
+        else if (new File(dir).exists()) queries = ElasticSearchMain.queriesFromExtractedPhrases(dir, 1f);
+        else {
+            System.out.println("Directory does not exist...");
+            return;
+        }
+
+        Client client = new Client(indexName);
+        client.setLeanResponses(true);
+        if (!client.indexExists()) {
+            System.out.println("Index does not exist...");
+            client.close();
+            return;
+        }
+
+        ArrayList<QueryResults> whole = run(client, queries, 0, null);
+        for (int maxTerms : QUERY_TERMS) {
+            run(client, queries, maxTerms, whole);
+        }
+        client.close();
+    }
+
+    /* Runs the queries reduced to maxTerms terms and prints the latency and the overlap with the whole queries. */
+    private static ArrayList<QueryResults> run(Client client, ArrayList<String> queries, int maxTerms, ArrayList<QueryResults> whole) {
+        client.setQueryReduction(maxTerms);
+        ArrayList<QueryResults> replies = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            QueryResults results = new QueryResults(20);
+            client.fullTextQuery(query, results); //warm up
+            replies.add(results);
+        }
+
+        long totalNanos = 0, maxNanos = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            long start = System.nanoTime();
+            client.fullTextQuery(queries.get(i), replies.get(i));
+            long nanos = System.nanoTime() - start;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        StringBuilder line = new StringBuilder(maxTerms == 0 ? "Whole queries" : "Top " + maxTerms + " terms");
+        line.append(": mean ").append(String.format("%.2f", totalNanos / 1e6 / queries.size())).append(" ms");
+        line.append(", max ").append(String.format("%.2f", maxNanos / 1e6)).append(" ms");
+        if (whole != null) {
+            line.append(", overlap ").append(String.format("%.3f", overlap(replies, whole)));
+            line.append(", term statistics requests ").append(client.getQueryReducer().getLookups());
+        }
+        System.out.println(line);
+        return replies;
+    }
+
+    /* Returns the mean fraction of the replies of the whole queries that the reduced queries retrieved too. */
+    private static double overlap(ArrayList<QueryResults> replies, ArrayList<QueryResults> whole) {
+        double sum = 0;
+        for (int q = 0; q < whole.size(); q++) {
+            QueryResults expected = whole.get(q), actual = replies.get(q);
+            if (expected.size() == 0) {
+                sum += 1;
+                continue;
+            }
+            int common = 0;
+            for (int i = 0; i < expected.size(); i++) {
+                for (int j = 0; j < actual.size(); j++) {
+                    if (expected.id(i) == actual.id(j)) {
+                        common++;
+                        break;
+                    }
+                }
+            }
+            sum += (double) common / expected.size();
+        }
+        return sum / whole.size();
+    }
+}
@@ -0,0 +1,82 @@
+// Tsogkas Evangelos 3150185
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query of a batch of queries, see {@link Client#batchQuery}.
+ */
+public class QueryRequest {
+
+    /**
+     * The type of query.
+     */
+    public enum Type {
+        /** A full text (match) query. */
+        FULL_TEXT,
+        /** An MLT query. */
+        MLT
+    }
+
+    public final Type type;
+    public final String text;
+    public final int rcn;
+
+    /**
+     * Constructor.
+     * @param type The type of query
+     * @param text The query text
+     */
+    public QueryRequest(Type type, String text) {
+        this.type = type;
+        this.text = text;
+        this.rcn = -1;
+    }
+
+    /**
+     * Constructor of a query by an indexed document. The query document is referred to by its rcn instead of its
+     * text and it is excluded from the replies by the cluster.
+     * @param type The type of query
+     * @param rcn The rcn of the query document
+     */
+    public QueryRequest(Type type, int rcn) {
+        this.type = type;
+        this.text = null;
+        this.rcn = rcn;
+    }
+
+    /**
+     * @return True if the query refers to an indexed document
+     */
+    public boolean isByDocument() {
+        return text == null;
+    }
+
+    /**
+     * Creates a list of queries by indexed documents of the same type.
+     * @param type The type of query
+     * @param rcns The rcns of the query documents
+     * @return The queries, in the order of the rcns
+     */
+    public static ArrayList<QueryRequest> ofDocuments(Type type, int[] rcns) {
+        ArrayList<QueryRequest> queries = new ArrayList<>(rcns.length);
+        for (int rcn : rcns) {
+            queries.add(new QueryRequest(type, rcn));
+        }
+        return queries;
+    }
+
+    /**
+     * Creates a list of queries of the same type.
+     * @param type The type of query
+     * @param texts The query texts
+     * @return The queries, in the order of the texts
+     */
+    public static ArrayList<QueryRequest> of(Type type, List<String> texts) {
+        ArrayList<QueryRequest> queries = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            queries.add(new QueryRequest(type, text));
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,101 @@
+// Tsogkas Evangelos 3150185
+
+import java.util.Arrays;
+
+/**
+ * The documents retrieved by a query, as pairs(id, score) in rank order.
+ *
+ * The ids and scores are kept in parallel primitive arrays that grow as needed. An instance can be cleared and
+ * reused for the next query, so a sweep of queries does not allocate per hit.
+ */
+public class QueryResults {
+
+    private int[] ids;
+    private float[] scores;
+    private int size;
+
+    /**
+     * Constructor.
+     */
+    public QueryResults() {
+        this(32);
+    }
+
+    /**
+     * Constructor.
+     * @param capacity The initial number of documents that fit without growing
+     */
+    public QueryResults(int capacity) {
+        ids = new int[Math.max(1, capacity)];
+        scores = new float[ids.length];
+    }
+
+    /**
+     * Adds a document after the ones already added.
+     * @param id The document id (rcn)
+     * @param score The score of the document
+     */
+    public void add(int id, float score) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        ids[size] = id;
+        scores[size] = score;
+        size++;
+    }
+
+    /**
+     * Removes all documents. The arrays are kept for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return The number of documents
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param rank The rank of the document, starting from 0
+     * @return The id of the document
+     */
+    public int id(int rank) {
+        return ids[rank];
+    }
+
+    /**
+     * @param rank The rank of the document, starting from 0
+     * @return The score of the document
+     */
+    public float score(int rank) {
+        return scores[rank];
+    }
+
+    /**
+     * Replaces the documents with the documents of another instance.
+     * @param other The results to copy
+     */
+    public void copyFrom(QueryResults other) {
+        clear();
+        if (ids.length < other.size) {
+            ids = new int[other.size];
+            scores = new float[other.size];
+        }
+        System.arraycopy(other.ids, 0, ids, 0, other.size);
+        System.arraycopy(other.scores, 0, scores, 0, other.size);
+        size = other.size;
+    }
+
+    /**
+     * @return A copy with arrays of the exact size
+     */
+    public QueryResults copy() {
+        QueryResults copy = new QueryResults(size);
+        copy.copyFrom(this);
+        return copy;
+    }
+}
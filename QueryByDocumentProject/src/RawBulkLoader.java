@@ -0,0 +1,294 @@
+// Tsogkas Evangelos 3150185
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Loads a bulk NDJSON file (like 'output/texts.json') to elastic search without parsing it.
+ *
+ * The file is memory mapped and split on line boundaries into slices of about 'maxBytes' bytes, each holding
+ * complete action/source line pairs. The slices are sent as they are to the '_bulk' endpoint of the low level client,
+ * optionally gzip compressed.
+ */
+public class RawBulkLoader {
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+    private static final int MIN_WINDOW = 64 * 1024 * 1024;
+    private static final int MAX_RETRIES = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+
+    private final RestClient client;
+    private final String endpoint;
+    private final long maxBytes;
+    private final int concurrentRequests;
+    private final boolean gzip;
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicLong docsIndexed = new AtomicLong();
+    private final AtomicLong docsFailed = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    private ClientMetrics metrics;
+
+    /**
+     * Constructor.
+     * @param client The low level rest client
+     * @param indexName The index to insert the documents to
+     * @param maxBytes Approximate size of a bulk request in bytes
+     * @param concurrentRequests Maximum number of bulk requests in flight
+     * @param gzip True to gzip compress the bulk requests
+     */
+    public RawBulkLoader(RestClient client, String indexName, long maxBytes, int concurrentRequests, boolean gzip) {
+        this.client = client;
+        this.endpoint = "/" + indexName + "/_doc/_bulk";
+        this.maxBytes = maxBytes;
+        this.concurrentRequests = concurrentRequests;
+        this.gzip = gzip;
+        inFlight = new Semaphore(concurrentRequests);
+    }
+
+    /**
+     * Sets the metrics to record the latency of the bulk requests, the failed items and the retries to.
+     * @param metrics The metrics of the client
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /* An entity over a slice of the mapped file, written without copying it to the heap. It can be sent again
+       when the request is retried. */
+    private static class SliceEntity extends AbstractHttpEntity {
+        private final ByteBuffer slice;
+
+        SliceEntity(ByteBuffer slice, ContentType contentType) {
+            this.slice = slice;
+            setContentType(contentType.toString());
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return slice.remaining();
+        }
+
+        @Override
+        public InputStream getContent() {
+            final ByteBuffer source = slice.duplicate();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return source.hasRemaining() ? source.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) {
+                    if (length == 0) return 0;
+                    if (!source.hasRemaining()) return -1;
+                    int n = Math.min(length, source.remaining());
+                    source.get(bytes, offset, n);
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return source.remaining();
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            ByteBuffer source = slice.duplicate();
+            byte[] chunk = new byte[8192];
+            while (source.hasRemaining()) {
+                int n = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * Loads the file and prints a summary with the throughput.
+     * @param file The NDJSON file
+     */
+    public void load(File file) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel())
+        {
+            long fileSize = channel.size();
+            long position = 0;
+            long windowSize = Math.max(MIN_WINDOW, 2 * maxBytes);
+            while (position < fileSize) {
+                long length = Math.min(fileSize - position, Math.min(windowSize, Integer.MAX_VALUE));
+                boolean last = position + length == fileSize;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int sliceStart = 0, pairEnd = 0, lines = 0;
+                for (int i = 0; i < length; i++) {
+                    if (window.get(i) == '\n' && ++lines % 2 == 0) {
+                        pairEnd = i + 1;
+                        if (pairEnd - sliceStart >= maxBytes) {
+                            send(slice(window, sliceStart, pairEnd), (pairEnd - sliceStart), countPairs(window, sliceStart, pairEnd));
+                            sliceStart = pairEnd;
+                        }
+                    }
+                }
+                if (last) pairEnd = (int) length;
+                if (pairEnd > sliceStart) {
+                    send(slice(window, sliceStart, pairEnd), pairEnd - sliceStart, countPairs(window, sliceStart, pairEnd));
+                }
+                else if (pairEnd == 0) {
+                    //a single document does not fit in the window
+                    windowSize *= 2;
+                    continue;
+                }
+                position += pairEnd;
+            }
+        }
+        finally {
+            try {
+                inFlight.acquire(concurrentRequests);
+                inFlight.release(concurrentRequests);
+            }
+            finally {
+                //the retries that are already scheduled still run
+                retryScheduler.shutdown();
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("{\n\tindexed : " + docsIndexed.get());
+        System.out.println("\tfailures : " + docsFailed.get());
+        System.out.println("\tretries : " + retries.get());
+        System.out.println("\tMB sent : " + bytesSent.get() / (1024 * 1024));
+        System.out.println("\tdocs/sec : " + (int) (docsIndexed.get() / seconds) + "\n}");
+    }
+
+    /* Returns the bytes [from, to) of the buffer as a new buffer sharing its content. */
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(to);
+        duplicate.position(from);
+        return duplicate.slice();
+    }
+
+    /* Counts the action/source line pairs in the bytes [from, to) of the buffer. */
+    private static int countPairs(ByteBuffer buffer, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') lines++;
+        }
+        if (to > from && buffer.get(to - 1) != '\n') lines++;
+        return lines / 2;
+    }
+
+    /* Sends a slice to the bulk endpoint. Blocks while the maximum number of requests are in flight. */
+    private void send(ByteBuffer slice, int length, int docs) throws IOException, InterruptedException {
+        HttpEntity entity;
+        BasicHeader[] headers;
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4);
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                new SliceEntity(slice, NDJSON).writeTo(out);
+            }
+            entity = new ByteArrayEntity(compressed.toByteArray(), NDJSON);
+            headers = new BasicHeader[] {new BasicHeader("Content-Encoding", "gzip")};
+        }
+        else {
+            entity = new SliceEntity(slice, NDJSON);
+            headers = new BasicHeader[0];
+        }
+        inFlight.acquire();
+        bytesSent.addAndGet(entity.getContentLength());
+        send(entity, headers, docs, 0);
+    }
+
+    /* Sends a bulk request. The permit is released when it is completed or out of retries. */
+    private void send(final HttpEntity entity, final BasicHeader[] headers, final int docs, final int attempt) {
+        Map<String, String> params = new HashMap<>();
+        params.put("filter_path", "errors,items.*.error");
+        final long requestStart = System.nanoTime();
+        client.performRequestAsync("POST", endpoint, params, entity, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                if (metrics != null) metrics.record(ClientMetrics.Operation.BULK_REQUEST, requestStart);
+                int failures = 0;
+                try {
+                    JSONObject result = (JSONObject) new JSONParser().parse(EntityUtils.toString(response.getEntity()));
+                    if (Boolean.TRUE.equals(result.get("errors"))) {
+                        JSONArray items = (JSONArray) result.get("items");
+                        failures = items == null ? docs : items.size();
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                docsIndexed.addAndGet(docs - failures);
+                docsFailed.addAndGet(failures);
+                if (metrics != null && failures > 0) metrics.addBulkItemFailures(failures);
+                inFlight.release();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (e instanceof ResponseException && attempt < MAX_RETRIES
+                        && ((ResponseException) e).getResponse().getStatusLine().getStatusCode() == 429) {
+                    retries.incrementAndGet();
+                    if (metrics != null) metrics.addRetries(1);
+                    retryScheduler.schedule(() -> send(entity, headers, docs, attempt + 1),
+                            INITIAL_BACKOFF_MILLIS << attempt, TimeUnit.MILLISECONDS);
+                }
+                else {
+                    e.printStackTrace();
+                    docsFailed.addAndGet(docs);
+                    if (metrics != null) {
+                        metrics.recordError(ClientMetrics.Operation.BULK_REQUEST);
+                        metrics.addBulkItemFailures(docs);
+                    }
+                    inFlight.release();
+                }
+            }
+        }, headers);
+    }
+}
@@ -0,0 +1,102 @@
+// Tsogkas Evangelos 3150185
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Fuses the replies of a query from several indices into a single ranking.
+ *
+ * With {@link Method#RRF} (reciprocal rank fusion) a document scores the sum of 1 / (rrfK + rank) over the lists
+ * that retrieved it, with ranks from 1, so only the ranks matter and the scores of different similarities need not
+ * be comparable. With {@link Method#SCORE} the scores of each list are normalized to [0, 1] by its minimum and
+ * maximum score and a document scores the sum of its normalized scores (CombSUM).
+ *
+ * The fused scores are accumulated per document and only the k best documents are kept, in a heap of size k, so
+ * the cost is linear in the number of replies. Ties are broken by the lower id.
+ */
+public class ResultFusion {
+
+    /**
+     * The method of fusion.
+     */
+    public enum Method {
+        /** Reciprocal rank fusion. */
+        RRF,
+        /** Sum of the min-max normalized scores. */
+        SCORE
+    }
+
+    /**
+     * The constant of reciprocal rank fusion of the original paper, which dampens the weight of the top ranks.
+     */
+    public static final int DEFAULT_RRF_K = 60;
+
+    private final Method method;
+    private final int rrfK;
+
+    /**
+     * Constructor.
+     * @param method The method of fusion
+     * @param rrfK The constant of reciprocal rank fusion, ignored by the other methods
+     */
+    public ResultFusion(Method method, int rrfK) {
+        this.method = method;
+        this.rrfK = rrfK;
+    }
+
+    /**
+     * @return The method of fusion
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Fuses rankings of documents.
+     * @param lists The pairs(id, score) of the documents of each ranking, in rank order. Null lists are ignored
+     * @param k The maximum number of documents of the fused ranking
+     * @return The pairs(id, fused score) of the k best documents, in rank order
+     */
+    public QueryResults fuse(List<QueryResults> lists, int k) {
+        HashMap<Integer, Float> scores = new HashMap<>();
+        for (QueryResults list : lists) {
+            if (list == null || list.size() == 0) continue;
+            float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+            for (int i = 0; i < list.size(); i++) {
+                min = Math.min(min, list.score(i));
+                max = Math.max(max, list.score(i));
+            }
+            for (int i = 0; i < list.size(); i++) {
+                float score = method == Method.RRF ? 1f / (rrfK + i + 1)
+                        : max > min ? (list.score(i) - min) / (max - min) : 1f;
+                scores.merge(list.id(i), score, Float::sum);
+            }
+        }
+
+        //the k best documents, the worst at the head
+        PriorityQueue<Map.Entry<Integer, Float>> best = new PriorityQueue<>(Math.max(k, 1), (a, b) -> {
+            int order = Float.compare(a.getValue(), b.getValue());
+            return order != 0 ? order : Integer.compare(b.getKey(), a.getKey());
+        });
+        for (Map.Entry<Integer, Float> entry : scores.entrySet()) {
+            if (best.size() < k) best.add(entry);
+            else if (k > 0 && best.comparator().compare(entry, best.peek()) > 0) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+
+        int[] ids = new int[best.size()];
+        float[] fused = new float[best.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            Map.Entry<Integer, Float> entry = best.poll();
+            ids[i] = entry.getKey();
+            fused[i] = entry.getValue();
+        }
+        QueryResults results = new QueryResults(ids.length);
+        for (int i = 0; i < ids.length; i++) results.add(ids[i], fused[i]);
+        return results;
+    }
+}
@@ -0,0 +1,250 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the replies of queries to a run file in the trec_eval format, one line per document:
+ * <pre>
+ * Q01	0	&lt;rcn&gt;	0	&lt;score&gt;	&lt;run tag&gt;
+ * </pre>
+ * The file is kept open until the writer is closed and lines are appended to it, as before, so a run file collects
+ * the replies of every run into it.
+ *
+ * The lines of a query are formatted without allocation into a buffer of the calling thread, so queries can be
+ * written from many threads at once. The queries are written to the file in the order of their ids, starting from
+ * the first id: a query that arrives before the queries with lower ids is kept until they are written. Queries that
+ * never arrive are skipped when the writer is closed. Scores are written with 6 decimals.
+ *
+ * The replies of a query can also be written hit by hit as they are retrieved (see {@link #begin}): when it is the
+ * turn of the query its lines go to the file in small chunks, so a deep query is never kept in memory.
+ */
+public class RunFileWriter implements Closeable {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int HIT_CHUNK_BYTES = 4096; //lines of a streamed query formatted before appending them
+
+    private final FileChannel channel;
+    private final OutputStream gzip; //null if the file is not compressed
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final byte[] runTag;
+    private final ThreadLocal<Chunk> chunks = ThreadLocal.withInitial(Chunk::new);
+    private final TreeMap<Integer, byte[]> pending = new TreeMap<>(); //queries that arrived before their turn
+    private int next; //id of the next query to write to the file
+
+    /* The formatted lines of a query. */
+    private static class Chunk {
+        byte[] bytes = new byte[8192];
+        int length;
+
+        void ensure(int extra) {
+            if (length + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+
+        void put(byte b) {
+            bytes[length++] = b;
+        }
+
+        void put(byte[] b) {
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        /* Writes the decimal digits of a non negative number, at least minDigits of them. */
+        void putDigits(long value, int minDigits) {
+            int digits = 1;
+            for (long v = value / 10; v > 0; v /= 10) digits++;
+            digits = Math.max(digits, minDigits);
+            for (int i = length + digits - 1; i >= length; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+        }
+
+        /* Writes a number with 6 decimals. */
+        void putDecimal(float value) {
+            long scaled = Math.round(Math.abs((double) value) * 1e6);
+            if (value < 0 && scaled != 0) put((byte) '-');
+            putDigits(scaled / 1000000, 1);
+            put((byte) '.');
+            putDigits(scaled % 1000000, 6);
+        }
+    }
+
+    /**
+     * Constructor. The ids of the queries start from 1.
+     * @param file The run file. It is created if it does not exist
+     * @param runTag The last column of the lines
+     * @param gzip True to compress the lines with gzip. Every writer appends a gzip member to the file
+     */
+    public RunFileWriter(File file, String runTag, boolean gzip) throws IOException {
+        this(file, runTag, gzip, 1);
+    }
+
+    /**
+     * Constructor.
+     * @param file The run file. It is created if it does not exist
+     * @param runTag The last column of the lines
+     * @param gzip True to compress the lines with gzip. Every writer appends a gzip member to the file
+     * @param firstQueryId The id of the first query
+     */
+    public RunFileWriter(File file, String runTag, boolean gzip, int firstQueryId) throws IOException {
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.gzip = gzip ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES) : null;
+        this.runTag = ("\t" + runTag + "\n").getBytes(StandardCharsets.UTF_8);
+        next = firstQueryId;
+    }
+
+    /**
+     * Writes the replies of a query.
+     * @param queryId The id of the query. Each id must be written once
+     * @param replies The pairs(id, score) of documents retrieved
+     */
+    public void write(int queryId, QueryResults replies) throws IOException {
+        Chunk chunk = chunks.get();
+        chunk.length = 0;
+        for (int i = 0; i < replies.size(); i++) line(chunk, queryId, replies.id(i), replies.score(i));
+        end(queryId, chunk);
+    }
+
+    /**
+     * Skips a query that has no replies to write, e.g. because it failed, so that the queries after it are not kept
+     * waiting for its turn.
+     * @param queryId The id of the query. Each id must be written or skipped once
+     */
+    public void skip(int queryId) throws IOException {
+        Chunk chunk = chunks.get();
+        chunk.length = 0;
+        end(queryId, chunk);
+    }
+
+    /**
+     * Starts writing the replies of a query hit by hit, e.g. from {@link Client#streamQuery}. If the queries with
+     * lower ids are written, the hits go to the file as they arrive, else they are kept until its turn.
+     * @param queryId The id of the query. Each id must be written once
+     * @return The writer of the hits of the query. Call {@link HitWriter#end} after its last hit
+     */
+    public HitWriter begin(int queryId) {
+        return new HitWriter(queryId);
+    }
+
+    /**
+     * Writes the hits of a query as they arrive in rank order.
+     */
+    public class HitWriter implements HitConsumer {
+
+        private final int queryId;
+        private final Chunk chunk = new Chunk();
+        private IOException error; //the first error of appending the hits, thrown by end
+
+        private HitWriter(int queryId) {
+            this.queryId = queryId;
+        }
+
+        @Override
+        public void accept(int rank, int id, float score) {
+            line(chunk, queryId, id, score);
+            if (chunk.length < HIT_CHUNK_BYTES || error != null) return;
+            synchronized (RunFileWriter.this) {
+                if (queryId != next) return;
+                try {
+                    append(chunk.bytes, chunk.length);
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+                chunk.length = 0;
+            }
+        }
+
+        /**
+         * Writes the last hits of the query.
+         */
+        public void end() throws IOException {
+            if (error != null) throw error;
+            RunFileWriter.this.end(queryId, chunk);
+        }
+    }
+
+    /**
+     * Writes the queries that are still waiting for lower ids, flushes the buffer and closes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (byte[] bytes : pending.values()) append(bytes, bytes.length);
+            pending.clear();
+            flush();
+            if (gzip != null) gzip.close();
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /* Formats the line of a hit into a chunk. */
+    private void line(Chunk chunk, int queryId, int id, float score) {
+        chunk.ensure(64 + runTag.length);
+        chunk.put((byte) 'Q');
+        chunk.putDigits(queryId, 2);
+        chunk.put((byte) '\t');
+        chunk.put((byte) '0');
+        chunk.put((byte) '\t');
+        chunk.putDigits(id, 1);
+        chunk.put((byte) '\t');
+        chunk.put((byte) '0');
+        chunk.put((byte) '\t');
+        chunk.putDecimal(score);
+        chunk.put(runTag);
+    }
+
+    /* Writes the last lines of a query, or keeps them if it is not its turn, and then the queries that waited for it. */
+    private synchronized void end(int queryId, Chunk chunk) throws IOException {
+        if (queryId != next) {
+            pending.put(queryId, Arrays.copyOf(chunk.bytes, chunk.length));
+            return;
+        }
+        append(chunk.bytes, chunk.length);
+        next++;
+        while (!pending.isEmpty() && pending.firstKey() == next) {
+            byte[] bytes = pending.pollFirstEntry().getValue();
+            append(bytes, bytes.length);
+            next++;
+        }
+    }
+
+    /* Appends bytes to the buffer, flushing it when it is full. */
+    private void append(byte[] bytes, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining()) flush();
+            int n = Math.min(buffer.remaining(), length - offset);
+            buffer.put(bytes, offset, n);
+            offset += n;
+        }
+    }
+
+    /* Writes the buffer to the file or to the gzip stream. */
+    private void flush() throws IOException {
+        buffer.flip();
+        if (gzip != null) {
+            gzip.write(buffer.array(), 0, buffer.limit());
+        }
+        else {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,72 @@
+// Tsogkas Evangelos 3150185
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The operations of a search engine that the project uses. Implemented by the elastic search {@link Client} and by
+ * the {@link EmbeddedIndex}, which needs no cluster.
+ */
+public interface SearchBackend {
+
+    /**
+     * @return True if the index exists
+     */
+    boolean indexExists();
+
+    /**
+     * Creates the index.
+     */
+    void createIndex();
+
+    /**
+     * Inserts the data to the index from the 'texts.json' file located in directory 'output'.
+     */
+    void insertData();
+
+    /**
+     * Makes a full text query.
+     * @param query The query
+     * @return The pairs(id, score) of documents retrieved
+     */
+    QueryResults fullTextQuery(String query);
+
+    /**
+     * Makes a full text query. Reuses the given results.
+     * @param query The query
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     */
+    void fullTextQuery(String query, QueryResults replies);
+
+    /**
+     * Makes an MLT query.
+     * @param query The 'like' text.
+     * @return The pairs(id, score) of documents retrieved
+     */
+    QueryResults MLTQuery(String query);
+
+    /**
+     * Makes an MLT query. Reuses the given results.
+     * @param query The 'like' text.
+     * @param replies The results to clear and fill with the pairs(id, score) of documents retrieved
+     */
+    void MLTQuery(String query, QueryResults replies);
+
+    /**
+     * Makes a batch of queries.
+     * @param queries The queries, full text or MLT
+     * @param batchSize The maximum number of queries that are sent together
+     * @return The pairs(id, score) of documents retrieved by each query, in the order of the queries
+     */
+    ArrayList<QueryResults> batchQuery(List<QueryRequest> queries, int batchSize);
+
+    /**
+     * Deletes the index.
+     */
+    void deleteIndex();
+
+    /**
+     * Releases the resources of the backend.
+     */
+    void close();
+}
@@ -0,0 +1,154 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read only segment of the {@link EmbeddedIndex}, memory mapped from the file written by {@link SegmentWriter}.
+ *
+ * Opening a segment reads only its header; the documents, the term dictionary and the postings are read from the
+ * mapped file when they are used. All reads are absolute, so a segment can be searched by many threads at once.
+ *
+ * File format (big endian):
+ * <pre>
+ * int magic, int version, int docCount, int termCount, long totalLength
+ * int[docCount] rcns, int[docCount] lengths
+ * int[termCount + 1] term starts, int[termCount] document frequencies, long[termCount + 1] postings starts
+ * byte[] terms (utf-8, sorted by their bytes), byte[] postings
+ * </pre>
+ * The postings of a term are pairs of variable byte ints (document delta, term frequency), in document order.
+ * A segment file is mapped as a single buffer, so it must be smaller than 2 GB.
+ */
+public class Segment {
+
+    static final int MAGIC = 0x424d3235;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+
+    private final MappedByteBuffer buffer;
+    private final int docCount;
+    private final int termCount;
+    private final long totalLength;
+    private final int rcnsStart, lengthsStart, termStartsStart, docFreqsStart, postingsStartsStart, termsStart, postingsStart;
+
+    /**
+     * Opens a segment file.
+     * @param file The segment file
+     */
+    public Segment(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel())
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a segment file: " + file);
+        }
+        docCount = buffer.getInt(8);
+        termCount = buffer.getInt(12);
+        totalLength = buffer.getLong(16);
+        rcnsStart = HEADER_BYTES;
+        lengthsStart = rcnsStart + 4 * docCount;
+        termStartsStart = lengthsStart + 4 * docCount;
+        docFreqsStart = termStartsStart + 4 * (termCount + 1);
+        postingsStartsStart = docFreqsStart + 4 * termCount;
+        termsStart = postingsStartsStart + 8 * (termCount + 1);
+        postingsStart = termsStart + buffer.getInt(termStartsStart + 4 * termCount);
+    }
+
+    /**
+     * @return The number of documents of the segment
+     */
+    public int docCount() {
+        return docCount;
+    }
+
+    /**
+     * @return The sum of the lengths of the documents in terms
+     */
+    public long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * @param doc The document number within the segment
+     * @return The rcn of the document
+     */
+    public int rcn(int doc) {
+        return buffer.getInt(rcnsStart + 4 * doc);
+    }
+
+    /**
+     * @param doc The document number within the segment
+     * @return The length of the document in terms
+     */
+    public int length(int doc) {
+        return buffer.getInt(lengthsStart + 4 * doc);
+    }
+
+    /**
+     * Finds a term in the term dictionary with a binary search.
+     * @param term The term as utf-8 bytes
+     * @return The ordinal of the term or -1 if it is not in the segment
+     */
+    public int ordinal(byte[] term) {
+        int low = 0, high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, term);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * @param ordinal The ordinal of a term
+     * @return The number of documents of the segment that contain the term
+     */
+    public int docFreq(int ordinal) {
+        return buffer.getInt(docFreqsStart + 4 * ordinal);
+    }
+
+    /**
+     * Returns the position of the postings of a term, to be read with {@link #readVInt}.
+     * @param ordinal The ordinal of a term
+     * @return The absolute position of the first byte of the postings
+     */
+    public int postings(int ordinal) {
+        return (int) (postingsStart + buffer.getLong(postingsStartsStart + 8 * ordinal));
+    }
+
+    /**
+     * Reads a variable byte int.
+     * @param position The position to read from. position[0] is advanced past the int
+     * @return The int
+     */
+    public int readVInt(int[] position) {
+        int p = position[0];
+        byte b = buffer.get(p++);
+        int value = b & 0x7f;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buffer.get(p++);
+            value |= (b & 0x7f) << shift;
+        }
+        position[0] = p;
+        return value;
+    }
+
+    /* Compares the term with the given ordinal to a term, by their unsigned bytes. */
+    private int compare(int ordinal, byte[] term) {
+        int start = termsStart + buffer.getInt(termStartsStart + 4 * ordinal);
+        int length = termsStart + buffer.getInt(termStartsStart + 4 * (ordinal + 1)) - start;
+        int n = Math.min(length, term.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get(start + i) & 0xff) - (term[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return length - term.length;
+    }
+}
@@ -0,0 +1,137 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a {@link Segment} in memory and writes it to a file.
+ *
+ * The postings of each term are variable byte encoded as they are added, so the memory of a segment under
+ * construction is about the size of its file.
+ */
+public class SegmentWriter {
+
+    private final HashMap<String, Postings> postings = new HashMap<>();
+    private int[] rcns = new int[1024];
+    private int[] lengths = new int[1024];
+    private int docCount;
+    private long totalLength;
+
+    /* The encoded postings of a term. */
+    private static class Postings {
+        byte[] bytes = new byte[16];
+        int size;
+        int lastDoc;
+        int docFreq;
+
+        void add(int doc, int termFreq) {
+            if (size + 10 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            writeVInt(doc - lastDoc);
+            writeVInt(termFreq);
+            lastDoc = doc;
+            docFreq++;
+        }
+
+        void writeVInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+    }
+
+    /**
+     * Adds a document. Documents are numbered in the order they are added.
+     * @param rcn The rcn of the document
+     * @param termFreqs The frequency of each term of the document
+     */
+    public void add(int rcn, Map<String, Integer> termFreqs) {
+        if (docCount == rcns.length) {
+            rcns = Arrays.copyOf(rcns, docCount * 2);
+            lengths = Arrays.copyOf(lengths, docCount * 2);
+        }
+        int length = 0;
+        for (Map.Entry<String, Integer> term : termFreqs.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), t -> new Postings()).add(docCount, term.getValue());
+            length += term.getValue();
+        }
+        rcns[docCount] = rcn;
+        lengths[docCount] = length;
+        totalLength += length;
+        docCount++;
+    }
+
+    /**
+     * @return The number of documents added
+     */
+    public int docCount() {
+        return docCount;
+    }
+
+    /**
+     * Writes the segment. The file is written under a temporary name and renamed, so a segment file is never
+     * partially written.
+     * @param file The segment file
+     */
+    public void write(File file) throws IOException {
+        int termCount = postings.size();
+        byte[][] terms = new byte[termCount][];
+        int t = 0;
+        for (String term : postings.keySet()) {
+            terms[t++] = term.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(terms, SegmentWriter::compare);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(Segment.MAGIC);
+            out.writeInt(Segment.VERSION);
+            out.writeInt(docCount);
+            out.writeInt(termCount);
+            out.writeLong(totalLength);
+            for (int i = 0; i < docCount; i++) out.writeInt(rcns[i]);
+            for (int i = 0; i < docCount; i++) out.writeInt(lengths[i]);
+
+            int termStart = 0;
+            for (byte[] term : terms) {
+                out.writeInt(termStart);
+                termStart += term.length;
+            }
+            out.writeInt(termStart);
+            Postings[] sorted = new Postings[termCount];
+            for (int i = 0; i < termCount; i++) {
+                sorted[i] = postings.get(new String(terms[i], StandardCharsets.UTF_8));
+                out.writeInt(sorted[i].docFreq);
+            }
+            long postingsStart = 0;
+            for (Postings p : sorted) {
+                out.writeLong(postingsStart);
+                postingsStart += p.size;
+            }
+            out.writeLong(postingsStart);
+            for (byte[] term : terms) out.write(term);
+            for (Postings p : sorted) out.write(p.bytes, 0, p.size);
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /* Compares two terms by their unsigned bytes, the order of the term dictionary of a segment. */
+    private static int compare(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,292 @@
+// Tsogkas Evangelos 3150185
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless parameter sweep of the phase 2 queries. Runs the queries of the extracted phrases for every configuration
+ * of a grid of phrase percentages and query parameters, and writes a run file per configuration.
+ *
+ * The phrases files are read once. The (configuration, query) pairs are sent from a fixed pool of '--concurrency'
+ * threads, so the cluster is kept busy with that many searches whatever the size of the grid, and the wall time
+ * depends on how many searches the cluster can run at once rather than on the number of configurations. The replies
+ * of a query are written to the run file of its configuration as soon as they arrive, in the order of the query ids,
+ * and evaluated if there are relevance judgments (see {@link Evaluator}).
+ *
+ * The full text configurations are the percentages times the match parameters and the MLT configurations are the
+ * percentages times the MLT parameters. Each configuration is named after its type, its percentage and its number,
+ * e.g. 'mlt60_3', which is the name of its run file in the output directory and its run tag. The parameters, the
+ * number of failed queries and the evaluation of every configuration are written to 'sweep.tsv' in the output
+ * directory. The failed queries are neither written to the run file nor evaluated.
+ *
+ * Usage: SweepMain &lt;index name&gt; --phrases &lt;directory&gt; [--pcts 0.3,0.6,0.9] [--type fulltext|mlt|both]
+ *        [--maxQueryTerms 100,...] [--minTermFreq 1,...] [--minDocFreq 1,...] [--mltMinimumShouldMatch 10%,...]
+ *        [--operator or,and] [--matchMinimumShouldMatch none,30%,...] [--concurrency 8] [--output output/sweep]
+ *        [--nodes host:port,...] [--routing round_robin|least_outstanding|latency_weighted]
+ * The lists are separated by commas and their defaults are the original parameters of the project.
+ */
+public class SweepMain {
+
+    private static final int DEPTH = 20; //documents per query, as the k of the client
+
+    public static void main (String args[]) throws InterruptedException {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            System.out.println("Usage: SweepMain <index name> --phrases <directory> [--pcts 0.3,0.6,0.9] [--type fulltext|mlt|both]"
+                    + " [--maxQueryTerms 100,...] [--minTermFreq 1,...] [--minDocFreq 1,...] [--mltMinimumShouldMatch 10%,...]"
+                    + " [--operator or,and] [--matchMinimumShouldMatch none,30%,...] [--concurrency 8] [--output output/sweep]"
+                    + " [--nodes host:port,...] [--routing round_robin|least_outstanding|latency_weighted]");
+            return;
+        }
+        String indexName = args[0];
+        String phrases = null, type = "both", output = "output/sweep", nodes = null, routing = null;
+        String[] pcts = {"0.3", "0.6", "0.9"};
+        String[] maxQueryTerms = {"100"}, minTermFreq = {"1"}, minDocFreq = {"1"}, mltMinimumShouldMatch = {"10%"};
+        String[] operators = {"or"}, matchMinimumShouldMatch = {"none"};
+        int concurrency = 8;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                System.out.println("Missing value of " + args[i]);
+                return;
+            }
+            String[] values = args[i + 1].split(",");
+            switch (args[i]) {
+                case "--phrases": phrases = args[i + 1]; break;
+                case "--pcts": pcts = values; break;
+                case "--type": type = args[i + 1]; break;
+                case "--maxQueryTerms": maxQueryTerms = values; break;
+                case "--minTermFreq": minTermFreq = values; break;
+                case "--minDocFreq": minDocFreq = values; break;
+                case "--mltMinimumShouldMatch": mltMinimumShouldMatch = values; break;
+                case "--operator": operators = values; break;
+                case "--matchMinimumShouldMatch": matchMinimumShouldMatch = values; break;
+                case "--concurrency": concurrency = Integer.parseInt(args[i + 1]); break;
+                case "--output": output = args[i + 1]; break;
+                case "--nodes": nodes = args[i + 1]; break;
+                case "--routing": routing = args[i + 1]; break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        if (phrases == null || !new File(phrases).exists()) {
+            System.out.println("Directory does not exist...");
+            return;
+        }
+
+        //the grid of parameters, the same for every percentage
+        ArrayList<QueryParameters> matchGrid = new ArrayList<>();
+        for (String operator : operators) {
+            for (String minimumShouldMatch : matchMinimumShouldMatch) {
+                matchGrid.add(QueryParameters.DEFAULT.withMatchOperator(operator)
+                        .withMatchMinimumShouldMatch(minimumShouldMatch.equals("none") ? null : minimumShouldMatch));
+            }
+        }
+        ArrayList<QueryParameters> mltGrid = new ArrayList<>();
+        for (String terms : maxQueryTerms) {
+            for (String termFreq : minTermFreq) {
+                for (String docFreq : minDocFreq) {
+                    for (String minimumShouldMatch : mltMinimumShouldMatch) {
+                        mltGrid.add(QueryParameters.DEFAULT.withMaxQueryTerms(Integer.parseInt(terms))
+                                .withMinTermFreq(Integer.parseInt(termFreq)).withMinDocFreq(Integer.parseInt(docFreq))
+                                .withMltMinimumShouldMatch(minimumShouldMatch));
+                    }
+                }
+            }
+        }
+
+        ArrayList<ArrayList<String>> documents = ElasticSearchMain.loadPhrases(phrases);
+        if (documents.isEmpty()) {
+            System.out.println("No queries...");
+            return;
+        }
+        Evaluator evaluator = ElasticSearchMain.loadEvaluator();
+        ArrayList<Configuration> configurations = new ArrayList<>();
+        for (String pct : pcts) {
+            float percentage = Float.parseFloat(pct);
+            ArrayList<String> queries = ElasticSearchMain.queriesFromPhrases(documents, percentage);
+            if (!type.equals("mlt")) {
+                for (QueryParameters parameters : matchGrid) {
+                    configurations.add(new Configuration("fulltext" + Math.round(percentage * 100) + "_" + (configurations.size() + 1),
+                            QueryRequest.Type.FULL_TEXT, percentage, parameters, queries, output, evaluator));
+                }
+            }
+            if (!type.equals("fulltext")) {
+                for (QueryParameters parameters : mltGrid) {
+                    configurations.add(new Configuration("mlt" + Math.round(percentage * 100) + "_" + (configurations.size() + 1),
+                            QueryRequest.Type.MLT, percentage, parameters, queries, output, evaluator));
+                }
+            }
+        }
+        if (configurations.isEmpty()) {
+            System.out.println("No configurations...");
+            return;
+        }
+
+        //the cache is not enabled, every query goes to the cluster
+        Client client = nodes == null ? new Client(indexName) : new Client(indexName, NodeRouter.parseHosts(nodes));
+        client.setLeanResponses(true);
+        if (routing != null) client.enableRouting(NodeRouter.Policy.valueOf(routing.toUpperCase()));
+        if (!client.indexExists()) {
+            System.out.println("Index does not exist...");
+            client.close();
+            return;
+        }
+
+        Sweep sweep = new Sweep(client, configurations, concurrency);
+        sweep.run();
+        System.out.println(sweep.report());
+        writeSummary(new File(output, "sweep.tsv"), configurations, evaluator);
+        client.close();
+    }
+
+    /* A configuration of the grid and its run. */
+    private static class Configuration {
+
+        final String name;
+        final QueryRequest.Type type;
+        final float percentage;
+        final QueryParameters parameters;
+        final List<String> queries;
+        final File file;
+        final Evaluator.Run run; //null if there are no relevance judgments
+        final AtomicInteger remaining; //queries that have not been written yet
+        final AtomicInteger failed = new AtomicInteger(); //queries that failed, neither written nor evaluated
+        private RunFileWriter writer; //opened by the first query, so that only the configurations in progress hold a file
+
+        Configuration(String name, QueryRequest.Type type, float percentage, QueryParameters parameters,
+                      List<String> queries, String output, Evaluator evaluator) {
+            this.name = name;
+            this.type = type;
+            this.percentage = percentage;
+            this.parameters = parameters;
+            this.queries = queries;
+            this.file = new File(output, name + ".txt");
+            this.run = evaluator != null ? evaluator.newRun() : null;
+            this.remaining = new AtomicInteger(queries.size());
+        }
+
+        /* Runs a query of the configuration and writes its replies. A query that failed is counted instead, so that it
+           is not taken for a query without relevant replies. Closes the run file after the last query. */
+        void query(Client client, int q, QueryResults replies) {
+            try {
+                boolean done = type == QueryRequest.Type.MLT ? client.MLTQuery(queries.get(q), parameters, replies)
+                        : client.fullTextQuery(queries.get(q), parameters, replies);
+                if (!done) {
+                    failed.incrementAndGet();
+                    writer().skip(q + 1);
+                    return;
+                }
+                writer().write(q + 1, replies);
+                if (run != null) run.add(q + 1, replies);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            finally {
+                if (remaining.decrementAndGet() == 0) close();
+            }
+        }
+
+        /* Closes the run file. */
+        private synchronized void close() {
+            try {
+                writer().close();
+                System.out.println("Saved replies to file '" + file + "'...");
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /* Returns the writer of the run file, replacing the file of a previous sweep. */
+        private synchronized RunFileWriter writer() throws IOException {
+            if (writer == null) {
+                file.delete();
+                writer = new RunFileWriter(file, name, false);
+            }
+            return writer;
+        }
+    }
+
+    /* The sweep of all the configurations. */
+    private static class Sweep {
+
+        private final Client client;
+        private final ArrayList<Configuration> configurations;
+        private final int concurrency;
+        private final ThreadLocal<QueryResults> replies = ThreadLocal.withInitial(() -> new QueryResults(DEPTH));
+        private long elapsedNanos;
+        private int queries;
+
+        Sweep(Client client, ArrayList<Configuration> configurations, int concurrency) {
+            this.client = client;
+            this.configurations = configurations;
+            this.concurrency = concurrency;
+        }
+
+        /* Sends the queries of every configuration and waits for them. The queries are submitted configuration by
+           configuration, so the configurations complete, and release their run files, one after the other. */
+        void run() throws InterruptedException {
+            ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+            long start = System.nanoTime();
+            for (Configuration configuration : configurations) {
+                for (int q = 0; q < configuration.queries.size(); q++) {
+                    int query = q;
+                    executor.execute(() -> configuration.query(client, query, replies.get()));
+                    queries++;
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+        /* Returns the summary of the sweep. */
+        String report() {
+            double seconds = elapsedNanos / 1e9;
+            ClientMetrics metrics = client.getMetrics();
+            return String.format(Locale.ROOT, "{%n\tconfigurations : %d%n\tqueries : %d%n\tconcurrency : %d%n"
+                            + "\tseconds : %.1f%n\tqueries per second : %.1f%n\terrors : %d%n}",
+                    configurations.size(), queries, concurrency, seconds, seconds > 0 ? queries / seconds : 0,
+                    metrics.errors(ClientMetrics.Operation.FULL_TEXT_QUERY) + metrics.errors(ClientMetrics.Operation.MLT_QUERY));
+        }
+    }
+
+    /* Writes the parameters of every configuration, its failed queries and the means of its metrics, a line per
+       configuration. */
+    private static void writeSummary(File file, ArrayList<Configuration> configurations, Evaluator evaluator) {
+        file.getParentFile().mkdirs();
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file))) {
+            StringBuilder header = new StringBuilder("configuration\ttype\tpercentage\tparameters\tfailed");
+            if (evaluator != null) {
+                header.append("\tnum_q");
+                for (String name : evaluator.names()) header.append('\t').append(name);
+            }
+            pw.println(header);
+            for (Configuration configuration : configurations) {
+                StringBuilder line = new StringBuilder();
+                line.append(configuration.name).append('\t').append(configuration.type).append('\t')
+                        .append(configuration.percentage).append('\t').append(configuration.parameters.describe(configuration.type))
+                        .append('\t').append(configuration.failed.get());
+                if (configuration.run != null) {
+                    line.append('\t').append(configuration.run.evaluated());
+                    for (double mean : configuration.run.means()) line.append(String.format(Locale.ROOT, "\t%.4f", mean));
+                }
+                pw.println(line);
+            }
+            System.out.println("Saved summary to file '" + file + "'...");
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
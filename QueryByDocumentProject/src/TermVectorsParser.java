@@ -0,0 +1,115 @@
+// Tsogkas Evangelos 3150185
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Streaming parser of term vectors responses ('_termvectors' and '_mtermvectors'). Reads only the terms of the
+ * "text" field with their term frequency and, if term statistics were requested, their document frequency.
+ */
+public class TermVectorsParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private TermVectorsParser() {
+    }
+
+    /**
+     * Parses the response of a multi term vectors request.
+     * @param in The response body
+     * @return The terms of each document by document id. Each term maps to {term frequency, document frequency},
+     *         where the document frequency is -1 if term statistics were not requested
+     */
+    public static HashMap<String, LinkedHashMap<String, int[]>> parseMulti(InputStream in) throws IOException {
+        HashMap<String, LinkedHashMap<String, int[]>> docs = new HashMap<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Expected a json object");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (field.equals("docs") && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        String[] id = new String[1];
+                        LinkedHashMap<String, int[]> terms = parseDoc(parser, id, null);
+                        if (id[0] != null) docs.put(id[0], terms);
+                    }
+                }
+                else parser.skipChildren();
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Parses the response of a term vectors request.
+     * @param in The response body
+     * @param docCount Set to the number of documents with the field, if field statistics were requested
+     * @return The terms of the document. Each term maps to {term frequency, document frequency}, where the
+     *         document frequency is -1 if term statistics were not requested
+     */
+    public static LinkedHashMap<String, int[]> parse(InputStream in, long[] docCount) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Expected a json object");
+            return parseDoc(parser, new String[1], docCount);
+        }
+    }
+
+    /* Parses a term vectors object, from after its start up to its end. */
+    private static LinkedHashMap<String, int[]> parseDoc(JsonParser parser, String[] id, long[] docCount) throws IOException {
+        LinkedHashMap<String, int[]> terms = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("_id") && token == JsonToken.VALUE_STRING) {
+                id[0] = parser.getText();
+            }
+            else if (field.equals("term_vectors") && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    JsonToken fieldToken = parser.nextToken();
+                    if (name.equals("text") && fieldToken == JsonToken.START_OBJECT) parseField(parser, terms, docCount);
+                    else parser.skipChildren();
+                }
+            }
+            else parser.skipChildren();
+        }
+        return terms;
+    }
+
+    /* Parses the term vectors of a field, from after its start up to its end. */
+    private static void parseField(JsonParser parser, LinkedHashMap<String, int[]> terms, long[] docCount) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("field_statistics") && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if (name.equals("doc_count") && docCount != null) docCount[0] = parser.getLongValue();
+                    else parser.skipChildren();
+                }
+            }
+            else if (field.equals("terms") && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String term = parser.getCurrentName();
+                    parser.nextToken();
+                    int[] stats = {0, -1};
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        parser.nextToken();
+                        if (name.equals("term_freq")) stats[0] = parser.getIntValue();
+                        else if (name.equals("doc_freq")) stats[1] = parser.getIntValue();
+                        else parser.skipChildren();
+                    }
+                    terms.put(term, stats);
+                }
+            }
+            else parser.skipChildren();
+        }
+    }
+}